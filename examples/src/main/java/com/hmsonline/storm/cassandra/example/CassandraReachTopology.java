@@ -80,6 +80,8 @@ public class CassandraReachTopology {
         ValuelessColumnsMapper followersColumnsMapper = new ValuelessColumnsMapper("url", "follower", true);
         CassandraLookupBolt<String, String, String> followersBolt = new CassandraLookupBolt<String, String, String>(configKey,
                 followersTupleMapper, followersColumnsMapper);
+        // follower rows can be very wide; stream them instead of reading each one whole
+        followersBolt.setPageSize(1000);
 
         builder.addBolt(new InitBolt());
         builder.addBolt(tweetersBolt).shuffleGrouping();
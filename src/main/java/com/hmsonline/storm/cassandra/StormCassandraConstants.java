@@ -30,4 +30,69 @@ public class StormCassandraConstants {
     public static final String CASSANDRA_STATE_KEYSPACE = "cassandra.state.keyspace";
     public static final String CASSANDRA_BATCH_MAX_SIZE = "cassandra.batch.max_size";
     public static final String CASSANDRA_CLIENT_CLASS = "cassandra.client.class";
+    // number of batches a batching bolt may have outstanding; above 1 batches are written asynchronously
+    public static final String CASSANDRA_BATCH_MAX_IN_FLIGHT = "cassandra.batch.max_in_flight";
+    // a batching bolt flushes once its batch reaches this many (estimated) bytes; 0 (the default) means no limit
+    public static final String CASSANDRA_BATCH_FLUSH_BYTES = "cassandra.batch.flush_bytes";
+    // how long a batching bolt waits for a batch to fill before flushing it, in ms (default 0)
+    public static final String CASSANDRA_BATCH_LINGER_MS = "cassandra.batch.linger_ms";
+    // number of threads a batching bolt flushes batches on, tuples are spread over them by row key (default 1)
+    public static final String CASSANDRA_BATCH_FLUSH_THREADS = "cassandra.batch.flush_threads";
+    // maximum number of tuples queued per flush thread before the overflow policy applies; 0 (the default) means unbounded
+    public static final String CASSANDRA_BATCH_QUEUE_CAPACITY = "cassandra.batch.queue_capacity";
+    // what a batching bolt does when its queue is full: BLOCK (the default), FAIL or SHED
+    public static final String CASSANDRA_BATCH_OVERFLOW_POLICY = "cassandra.batch.overflow_policy";
+    // hand tuples to the flush threads through a lock-free ring buffer that waits
+    // with BUSY_SPIN, YIELD or PARK; unset (the default) uses a LinkedBlockingQueue
+    public static final String CASSANDRA_BATCH_RING_BUFFER_WAIT_STRATEGY = "cassandra.batch.ring_buffer.wait_strategy";
+    // retry a batch that Cassandra or the mapper rejected in halves, so that only the offending tuples are failed (default false)
+    public static final String CASSANDRA_BATCH_BISECT_FAILURES = "cassandra.batch.bisect_failures";
+    // directory for the spill logs of batching bolts; when set, batches are appended to a local log
+    // instead of Cassandra while the queue is above the spill watermark, and replayed later
+    public static final String CASSANDRA_BATCH_SPILL_DIR = "cassandra.batch.spill.dir";
+    // queue depth above which a batching bolt spills batches to disk (default 10000); must be below the queue capacity,
+    // otherwise half the capacity is used
+    public static final String CASSANDRA_BATCH_SPILL_WATERMARK = "cassandra.batch.spill.watermark";
+    // size of each spill log file in bytes (default 256MB)
+    public static final String CASSANDRA_BATCH_SPILL_MAX_BYTES = "cassandra.batch.spill.max_bytes";
+    // how long a batching bolt's cleanup() may spend writing queued and in flight batches, in ms (default 10000)
+    public static final String CASSANDRA_BATCH_DRAIN_TIMEOUT_MS = "cassandra.batch.drain_timeout_ms";
+    // reporting interval of the client metrics, in seconds (default 60)
+    public static final String CASSANDRA_METRICS_BUCKET_SECS = "cassandra.metrics.bucket_secs";
+
+    // client settings, read from the client config map (next to cassandra.host)
+
+    // maximum number of connections the client opens to each Cassandra host; unset keeps the Astyanax default
+    public static final String CASSANDRA_POOL_MAX_CONNS_PER_HOST = "cassandra.pool.max_conns_per_host";
+
+    // open one connection pool for the whole cluster, shared by all keyspaces, instead of one per keyspace (default false)
+    public static final String CASSANDRA_POOL_SHARED = "cassandra.pool.shared";
+
+    // connections opened to each Cassandra host when the pool starts, so the first operations do not have to
+    public static final String CASSANDRA_POOL_INIT_CONNS_PER_HOST = "cassandra.pool.init_conns_per_host";
+
+    // number of keyspaces started in parallel when the client starts (default 4); not with cassandra.pool.shared
+    public static final String CASSANDRA_STARTUP_THREADS = "cassandra.startup.threads";
+
+    // delay each keyspace start by a random amount of up to this many ms, to spread connections to the seeds (default 0)
+    public static final String CASSANDRA_STARTUP_JITTER_MS = "cassandra.startup.jitter_ms";
+
+    // only connect to a keyspace when it is first used (default false); not with cassandra.pool.shared
+    public static final String CASSANDRA_STARTUP_LAZY = "cassandra.startup.lazy";
+
+    // slice lookups wider than this fraction of the observed row width read
+    // the whole row instead; 0 (the default) disables the switch
+    public static final String CASSANDRA_LOOKUP_FULL_ROW_SLICE_RATIO = "cassandra.lookup.full_row_slice_ratio";
+
+    // maximum number of row keys a batch lookup reads per multi-row query (default 100)
+    public static final String CASSANDRA_LOOKUP_MAX_KEYS_PER_QUERY = "cassandra.lookup.max_keys_per_query";
+
+    // split write batches by replica and send each part straight to a replica of its rows (default false)
+    public static final String CASSANDRA_BATCH_TOKEN_AWARE = "cassandra.batch.token_aware";
+
+    // estimated size at which a write batch is cut into another batch; 0 (the default) means no limit
+    public static final String CASSANDRA_BATCH_MAX_BYTES = "cassandra.batch.max_bytes";
+
+    // keep only the last write (or delete) per column within a write batch; all tuples are still acked (default false)
+    public static final String CASSANDRA_BATCH_COALESCE = "cassandra.batch.coalesce";
 }
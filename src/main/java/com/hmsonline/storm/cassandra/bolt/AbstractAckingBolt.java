@@ -0,0 +1,115 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hmsonline.storm.cassandra.bolt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import backtype.storm.task.OutputCollector;
+import backtype.storm.tuple.Tuple;
+
+import com.hmsonline.storm.cassandra.bolt.mapper.TupleMapper;
+import com.hmsonline.storm.cassandra.exceptions.PartialWriteException;
+
+/**
+ * Base class for bolts that write tuples in batches and ack or fail a whole
+ * batch once its write completes, according to the bolt's
+ * <code>AckStrategy</code>.
+ */
+@SuppressWarnings("serial")
+public abstract class AbstractAckingBolt<K, C, V> extends CassandraBolt<K, C, V> {
+    private static final Logger LOG = LoggerFactory.getLogger(AbstractAckingBolt.class);
+
+    protected AckStrategy ackStrategy = AckStrategy.ACK_IGNORE;
+
+    protected OutputCollector collector;
+
+    public AbstractAckingBolt(String clientConfigKey, TupleMapper<K, C, V> tupleMapper) {
+        super(clientConfigKey, tupleMapper);
+    }
+
+    /**
+     * Called once every mutation for <code>inputs</code> has been written.
+     */
+    protected void onBatchSucceeded(List<Tuple> inputs) {
+        // NOTE: Changed this to ack on all or none since that is how the
+        // mutation executes.
+        if (this.ackStrategy == AckStrategy.ACK_ON_WRITE) {
+            for (Tuple tupleToAck : inputs) {
+                this.collector.ack(tupleToAck);
+            }
+        }
+    }
+
+    /**
+     * Called when writing <code>inputs</code> failed. If only some of the
+     * batch's keyspaces failed (<code>PartialWriteException</code>), only
+     * their tuples are failed and the rest are treated as written.
+     */
+    protected void onBatchFailed(List<Tuple> inputs, Throwable e) {
+        List<Tuple> failedInputs = inputs;
+        if (e instanceof PartialWriteException) {
+            Set<Object> failed = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+            failed.addAll(((PartialWriteException) e).getFailedInputs());
+            failedInputs = new ArrayList<Tuple>();
+            List<Tuple> written = new ArrayList<Tuple>();
+            for (Tuple input : inputs) {
+                if (failed.contains(input)) {
+                    failedInputs.add(input);
+                } else {
+                    written.add(input);
+                }
+            }
+            onBatchSucceeded(written);
+        }
+        if (retryFailed(failedInputs, e)) {
+            return;
+        }
+        if (failedInputs != inputs) {
+            LOG.error("Unable to write " + failedInputs.size() + " of " + inputs.size() + " tuples in batch.", e);
+        } else {
+            LOG.error("Unable to write batch.", e);
+        }
+        for (Tuple tupleToFail : failedInputs) {
+            this.collector.fail(tupleToFail);
+        }
+    }
+
+    /**
+     * Gives subclasses a chance to write the failed tuples of a batch again
+     * instead of failing them. Returns whether the tuples were taken care
+     * of; the default does not retry.
+     */
+    protected boolean retryFailed(List<Tuple> failedInputs, Throwable e) {
+        return false;
+    }
+
+    public AckStrategy getAckStrategy() {
+        return ackStrategy;
+    }
+
+    public void setAckStrategy(AckStrategy ackStrategy) {
+        this.ackStrategy = ackStrategy;
+    }
+}
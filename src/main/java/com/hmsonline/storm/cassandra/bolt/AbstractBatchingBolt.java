@@ -17,17 +17,36 @@
  */
 package com.hmsonline.storm.cassandra.bolt;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.hmsonline.storm.cassandra.bolt.mapper.TupleMapper;
 import com.hmsonline.storm.cassandra.StormCassandraConstants;
+import com.hmsonline.storm.cassandra.client.AstyanaxClient;
+import com.hmsonline.storm.cassandra.client.SpillLog;
+import com.hmsonline.storm.cassandra.exceptions.PartialWriteException;
+import com.hmsonline.storm.cassandra.exceptions.TupleMappingException;
+import com.netflix.astyanax.connectionpool.exceptions.BadRequestException;
 
+import backtype.storm.metric.api.CountMetric;
+import backtype.storm.metric.api.IMetric;
 import backtype.storm.task.OutputCollector;
 import backtype.storm.task.TopologyContext;
 import backtype.storm.topology.IRichBolt;
@@ -51,46 +70,296 @@ import backtype.storm.utils.Utils;
  *
  */
 @SuppressWarnings("serial")
-public abstract class AbstractBatchingBolt<K, C, V> extends CassandraBolt<K, C, V> implements IRichBolt {
+public abstract class AbstractBatchingBolt<K, C, V> extends AbstractAckingBolt<K, C, V> implements IRichBolt {
     private static final Logger LOG = LoggerFactory.getLogger(AbstractBatchingBolt.class);
 
-    protected AckStrategy ackStrategy = AckStrategy.ACK_IGNORE;
-
-    protected OutputCollector collector;
+    protected OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
 
+    /**
+     * @deprecated tuples are queued per flush thread. This is the queue of
+     *             the only flush thread when
+     *             <code>cassandra.batch.flush_threads</code> is 1 and no ring
+     *             buffer wait strategy is set, and <code>null</code>
+     *             otherwise.
+     */
+    @Deprecated
     protected LinkedBlockingQueue<Tuple> queue;
 
-    private BatchThread batchThread;
+    private static final int DEFAULT_RING_BUFFER_CAPACITY = 16 * 1024;
+
+    private BatchThread[] batchThreads;
+
+    private int maxBatchesInFlight = 1;
+
+    private Semaphore batchesInFlight;
+
+    private transient CountMetric overflows;
+
+    private boolean bisectFailures = false;
+
+    private static final int DEFAULT_SPILL_WATERMARK = 10000;
+
+    private static final int DEFAULT_SPILL_MAX_BYTES = 256 * 1024 * 1024;
+
+    private static final long REPLAY_IDLE_MILLIS = 100;
+
+    private static final long MAX_REPLAY_BACKOFF_MILLIS = 30 * 1000;
+
+    private transient SpillLog spillLog;
+
+    private int spillWatermark;
+
+    private ReplayThread replayThread;
+
+    private transient CountMetric spilledTuples;
+
+    private static final long DEFAULT_DRAIN_TIMEOUT_MILLIS = 10 * 1000;
+
+    // how often an idle batch thread checks whether it should stop
+    private static final long STOP_CHECK_MILLIS = 100;
+
+    private long drainTimeoutMillis;
+
+    // set once drain() has collected the last retries, guarded by this
+    private boolean drained = false;
 
     public AbstractBatchingBolt(String clientConfigKey, TupleMapper<K, C, V> tupleMapper) {
         super(clientConfigKey, tupleMapper);
     }
 
-    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @SuppressWarnings({ "rawtypes", "unchecked", "deprecation" })
     @Override
     public void prepare(Map stormConf, TopologyContext context, OutputCollector collector) {
         super.prepare(stormConf, context);
         int batchMaxSize = Utils.getInt(Utils.get(stormConf, StormCassandraConstants.CASSANDRA_BATCH_MAX_SIZE, 0));
-        this.collector = collector;
-        this.queue = new LinkedBlockingQueue<Tuple>();
-        this.batchThread = new BatchThread(batchMaxSize);
-        this.batchThread.start();
+        this.maxBatchesInFlight = Math.max(1,
+                Utils.getInt(Utils.get(stormConf, StormCassandraConstants.CASSANDRA_BATCH_MAX_IN_FLIGHT, 1)));
+        this.batchesInFlight = new Semaphore(this.maxBatchesInFlight);
+        // the collector is called from the flush threads and from
+        // asynchronous write callbacks too, so all calls go through one lock
+        this.collector = collector != null ? new OutputCollector(new SynchronizedOutputCollector(collector)) : null;
+        this.drainTimeoutMillis = Utils.getInt(Utils.get(stormConf, StormCassandraConstants.CASSANDRA_BATCH_DRAIN_TIMEOUT_MS,
+                DEFAULT_DRAIN_TIMEOUT_MILLIS));
+        Object overflowPolicy = stormConf.get(StormCassandraConstants.CASSANDRA_BATCH_OVERFLOW_POLICY);
+        if (overflowPolicy != null) {
+            this.overflowPolicy = OverflowPolicy.valueOf(overflowPolicy.toString().toUpperCase());
+        }
+        Object bisectFailures = stormConf.get(StormCassandraConstants.CASSANDRA_BATCH_BISECT_FAILURES);
+        this.bisectFailures = bisectFailures != null && Boolean.parseBoolean(bisectFailures.toString());
+        this.overflows = new CountMetric();
+        this.spilledTuples = new CountMetric();
+        if (context != null) {
+            int bucketSecs = Utils.getInt(Utils.get(stormConf, StormCassandraConstants.CASSANDRA_METRICS_BUCKET_SECS,
+                    AstyanaxClient.DEFAULT_METRICS_BUCKET_SECS));
+            context.registerMetric("cassandra.batch.queue_depth", new IMetric() {
+                @Override
+                public Object getValueAndReset() {
+                    int depth = 0;
+                    for (BatchThread batchThread : batchThreads) {
+                        depth += batchThread.queue.size();
+                    }
+                    return depth;
+                }
+            }, bucketSecs);
+            context.registerMetric("cassandra.batch.overflows", this.overflows, bucketSecs);
+            context.registerMetric("cassandra.batch.spilled", this.spilledTuples, bucketSecs);
+        }
+        Object spillDir = stormConf.get(StormCassandraConstants.CASSANDRA_BATCH_SPILL_DIR);
+        if (spillDir != null) {
+            openSpillLog(new File(spillDir.toString(), (context != null ? context.getThisComponentId() + "-"
+                    + context.getThisTaskId() : getClass().getSimpleName()) + ".spill"), stormConf);
+        }
+        int queueCapacity = Utils.getInt(Utils.get(stormConf, StormCassandraConstants.CASSANDRA_BATCH_QUEUE_CAPACITY, 0));
+        int flushThreads = Math.max(1,
+                Utils.getInt(Utils.get(stormConf, StormCassandraConstants.CASSANDRA_BATCH_FLUSH_THREADS, 1)));
+        Object waitStrategy = stormConf.get(StormCassandraConstants.CASSANDRA_BATCH_RING_BUFFER_WAIT_STRATEGY);
+        int capacity = queueCapacity > 0 ? queueCapacity : waitStrategy != null ? DEFAULT_RING_BUFFER_CAPACITY
+                : Integer.MAX_VALUE;
+        if (this.spillLog != null && this.spillWatermark >= capacity) {
+            // a full queue never reaches the watermark, so nothing would spill
+            int spillWatermark = Math.max(1, capacity / 2);
+            LOG.warn(StormCassandraConstants.CASSANDRA_BATCH_SPILL_WATERMARK + " (" + this.spillWatermark
+                    + ") must be below the queue capacity (" + capacity + "), spilling at " + spillWatermark
+                    + " instead.");
+            this.spillWatermark = spillWatermark;
+        }
+        this.batchThreads = new BatchThread[flushThreads];
+        for (int i = 0; i < flushThreads; i++) {
+            BlockingQueue<Tuple> queue;
+            if (waitStrategy != null) {
+                // execute() is the only producer and the batch thread the only consumer
+                queue = new SpscRingBuffer<Tuple>(queueCapacity > 0 ? queueCapacity : DEFAULT_RING_BUFFER_CAPACITY,
+                        SpscRingBuffer.WaitStrategy.valueOf(waitStrategy.toString().toUpperCase()));
+            } else {
+                queue = new LinkedBlockingQueue<Tuple>(queueCapacity > 0 ? queueCapacity : Integer.MAX_VALUE);
+            }
+            this.batchThreads[i] = new BatchThread(i, queue, batchMaxSize,
+                    Utils.getInt(Utils.get(stormConf, StormCassandraConstants.CASSANDRA_BATCH_FLUSH_BYTES, 0)),
+                    Utils.getInt(Utils.get(stormConf, StormCassandraConstants.CASSANDRA_BATCH_LINGER_MS, 0)));
+            this.batchThreads[i].start();
+        }
+        this.queue = flushThreads == 1 && waitStrategy == null ? (LinkedBlockingQueue<Tuple>) this.batchThreads[0].queue
+                : null;
+        if (this.spillLog != null) {
+            this.replayThread = new ReplayThread();
+            this.replayThread.start();
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    private void openSpillLog(File file, Map stormConf) {
+        if (this.tupleMapper == null) {
+            // counter increments are not idempotent, replaying them is not safe
+            LOG.warn(getClass().getName() + " does not support spilling, ignoring "
+                    + StormCassandraConstants.CASSANDRA_BATCH_SPILL_DIR + ".");
+            return;
+        }
+        this.spillWatermark = Utils.getInt(Utils.get(stormConf, StormCassandraConstants.CASSANDRA_BATCH_SPILL_WATERMARK,
+                DEFAULT_SPILL_WATERMARK));
+        try {
+            this.spillLog = SpillLog.open(file, Utils.getInt(Utils.get(stormConf,
+                    StormCassandraConstants.CASSANDRA_BATCH_SPILL_MAX_BYTES, DEFAULT_SPILL_MAX_BYTES)));
+            if (!this.spillLog.isEmpty()) {
+                LOG.info("Found " + this.spillLog.size() + " bytes to replay in spill log [" + file + "].");
+            }
+        } catch (IOException e) {
+            LOG.error("Unable to open spill log [" + file + "], batches will not be spilled.", e);
+        }
     }
 
     @Override
     public void execute(Tuple input) {
+        if (!enqueue(input)) {
+            return;
+        }
         if (this.ackStrategy == AckStrategy.ACK_ON_RECEIVE) {
             this.collector.ack(input);
         }
-        this.queue.offer(input);
     }
 
+    /**
+     * Adds <code>input</code> to the queue of its flush thread, applying the
+     * overflow policy if that queue is full.
+     * 
+     * @return whether the tuple was queued
+     */
+    private boolean enqueue(Tuple input) {
+        BlockingQueue<Tuple> queue = this.batchThreads[threadFor(input)].queue;
+        if (queue.offer(input)) {
+            return true;
+        }
+        this.overflows.incr();
+        switch (this.overflowPolicy) {
+        case BLOCK:
+            try {
+                queue.put(input);
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                this.collector.fail(input);
+                return false;
+            }
+        case FAIL:
+            this.collector.fail(input);
+            return false;
+        default:
+            this.collector.ack(input);
+            return false;
+        }
+    }
+
+    private int threadFor(Tuple input) {
+        if (this.batchThreads.length == 1) {
+            return 0;
+        }
+        int hash;
+        try {
+            Object key = routingKey(input);
+            if (key == null) {
+                return 0;
+            }
+            // hash the serialized key, so that keys without a value based
+            // hashCode() (byte[] in particular) always go to the same thread
+            hash = AstyanaxClient.toByteBuffer(key).hashCode();
+        } catch (RuntimeException e) {
+            // the write will fail on the same mapping error, let it be
+            // reported there
+            return 0;
+        }
+        return (hash & Integer.MAX_VALUE) % this.batchThreads.length;
+    }
+
+    /**
+     * Returns the key used to pick the flush thread for <code>input</code>
+     * when <code>cassandra.batch.flush_threads</code> is above 1. Tuples whose
+     * keys serialize to the same bytes go to the same thread and are written in the order they
+     * were received (as long as only one batch is in flight). Defaults to
+     * the row key.
+     */
+    protected Object routingKey(Tuple input) {
+        return this.tupleMapper != null ? this.tupleMapper.mapToRowKey(input) : null;
+    }
+
+    /**
+     * Drains the bolt before closing the client: the batch threads write
+     * what is still queued, then the bolt waits for batches in flight. Both
+     * steps share the <code>cassandra.batch.drain_timeout_ms</code> deadline
+     * (10s by default); tuples still queued after it are failed so the spout
+     * replays them. Storm calls <code>cleanup()</code> on the executor
+     * thread, so no new tuples arrive while draining.
+     */
     @Override
     public void cleanup() {
-        this.batchThread.stopRunning();
+        // not started by subclasses that use the two argument prepare()
+        if (this.batchThreads != null) {
+            drain(System.currentTimeMillis() + this.drainTimeoutMillis);
+        }
+        if (this.replayThread != null) {
+            this.replayThread.stopRunning();
+        }
+        if (this.spillLog != null) {
+            try {
+                this.spillLog.close();
+            } catch (IOException e) {
+                LOG.warn("Unable to close spill log [" + this.spillLog.getFile() + "].", e);
+            }
+        }
         super.cleanup();
     }
 
+    private void drain(long deadline) {
+        for (BatchThread batchThread : this.batchThreads) {
+            batchThread.stopRunning(deadline);
+        }
+        try {
+            for (BatchThread batchThread : this.batchThreads) {
+                batchThread.join(Math.max(1, deadline - System.currentTimeMillis()));
+            }
+            if (!this.batchesInFlight.tryAcquire(this.maxBatchesInFlight,
+                    Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+                LOG.warn("Batches still in flight after " + this.drainTimeoutMillis + " ms, closing anyway.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            // halves of batches rejected from now on are failed right away
+            this.drained = true;
+        }
+        List<Tuple> left = new ArrayList<Tuple>();
+        for (BatchThread batchThread : this.batchThreads) {
+            // a thread still writing its last batch stops at the deadline,
+            // so take what it has not started on
+            batchThread.drainRemaining(left);
+        }
+        if (!left.isEmpty()) {
+            LOG.warn("Failing " + left.size() + " tuples not written within " + this.drainTimeoutMillis + " ms.");
+            for (Tuple input : left) {
+                this.collector.fail(input);
+            }
+        }
+    }
+
     /**
      * Process a <code>java.util.List</code> of
      * <code>backtype.storm.tuple.Tuple</code> objects that have been
@@ -107,48 +376,371 @@ public abstract class AbstractBatchingBolt<K, C, V> extends CassandraBolt<K, C,
      */
     public abstract void executeBatch(List<Tuple> inputs);
 
+    /**
+     * Whether parts of a failed batch can be handed to
+     * <code>executeBatch(List<Tuple> inputs)</code> again. Rejected batches
+     * are only bisected when <code>cassandra.batch.bisect_failures</code> is
+     * enabled and this returns <code>true</code>; otherwise the whole batch
+     * is failed. Subclasses that return <code>true</code> must report
+     * failed writes through <code>onBatchFailed()</code>.
+     */
+    protected boolean supportsRetry() {
+        return false;
+    }
+
+    /**
+     * Whether batches should be written asynchronously, i.e. whether
+     * <code>cassandra.batch.max_in_flight</code> allows more than one batch
+     * to be outstanding at a time.
+     */
+    protected boolean isAsync() {
+        return this.maxBatchesInFlight > 1;
+    }
+
+    /**
+     * Writes a batch asynchronously. Blocks the calling (batch) thread until
+     * fewer than <code>cassandra.batch.max_in_flight</code> batches are
+     * outstanding, then starts the write and acks or fails
+     * <code>inputs</code> when it completes.
+     * 
+     * @param inputs
+     * @param write
+     */
+    protected void executeAsync(final List<Tuple> inputs, AsyncWrite write) {
+        try {
+            this.batchesInFlight.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            onBatchFailed(inputs, e);
+            return;
+        }
+        ListenableFuture<?> future;
+        try {
+            future = write.start();
+        } catch (Throwable e) {
+            future = Futures.immediateFailedFuture(e);
+        }
+        Futures.addCallback(future, new FutureCallback<Object>() {
+            @Override
+            public void onSuccess(Object result) {
+                batchesInFlight.release();
+                onBatchSucceeded(inputs);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                batchesInFlight.release();
+                onBatchFailed(inputs, t);
+            }
+        });
+    }
+
+    /**
+     * Retries a rejected batch in halves when
+     * <code>cassandra.batch.bisect_failures</code> is enabled. Once
+     * <code>cleanup()</code> has drained the batch threads nothing would
+     * write the halves, so a batch rejected after that (on the callback of
+     * a write still in flight) is failed instead.
+     */
+    @Override
+    protected boolean retryFailed(List<Tuple> failedInputs, Throwable e) {
+        if (!this.bisectFailures || failedInputs.size() <= 1 || !supportsRetry() || !isRejected(e)) {
+            return false;
+        }
+        synchronized (this) {
+            if (this.drained) {
+                return false;
+            }
+            LOG.warn("Batch of " + failedInputs.size() + " tuples was rejected, retrying it in halves.", e);
+            int middle = failedInputs.size() / 2;
+            retryLater(new ArrayList<Tuple>(failedInputs.subList(0, middle)));
+            retryLater(new ArrayList<Tuple>(failedInputs.subList(middle, failedInputs.size())));
+        }
+        return true;
+    }
+
+    /**
+     * Hands one half of a rejected batch to the batch thread its tuples were
+     * queued on, which executes it like any other batch, so that a half that
+     * is rejected too is split again. The failure may be reported on an
+     * asynchronous write callback, which must not block on another write.
+     */
+    private void retryLater(List<Tuple> inputs) {
+        if (this.batchThreads == null) {
+            // not started, the caller writes synchronously
+            executeBatch(inputs);
+            return;
+        }
+        this.batchThreads[threadFor(inputs.get(0))].retries.add(inputs);
+    }
+
+    /**
+     * Whether <code>e</code> means the batch was refused as a whole before
+     * any of it was applied, because of the data in it: the mapper could not
+     * map a tuple, a value could not be serialized, or Cassandra rejected
+     * the request as invalid. Only then is it safe to write parts of it
+     * again; after a timeout some mutations (counter increments in
+     * particular) may already have been applied. Other runtime exceptions
+     * (a <code>NullPointerException</code>, or a wrapped timeout) may have
+     * nothing to do with any one tuple, so they fail the whole batch.
+     */
+    private static boolean isRejected(Throwable e) {
+        if (e instanceof ExecutionException && e.getCause() != null) {
+            return isRejected(e.getCause());
+        }
+        if (e instanceof PartialWriteException) {
+            for (Throwable failure : ((PartialWriteException) e).getFailures().values()) {
+                if (!isRejected(failure)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return e instanceof BadRequestException || e instanceof TupleMappingException
+                || e instanceof ClassCastException || e instanceof IllegalArgumentException;
+    }
+
+    /**
+     * Appends a batch to the spill log instead of writing it, and treats it
+     * as written once it is on disk. Falls back to writing it if the log is
+     * full or the batch cannot be mapped.
+     */
+    private void spillBatch(List<Tuple> inputs) {
+        try {
+            this.client.spillTuples(inputs, this.tupleMapper, this.spillLog);
+        } catch (Throwable e) {
+            LOG.warn("Unable to spill batch, writing it instead.", e);
+            executeBatch(inputs);
+            return;
+        }
+        this.spilledTuples.incrBy(inputs.size());
+        onBatchSucceeded(inputs);
+    }
+
+    /**
+     * Whether the queue of any flush thread is still above half the spill
+     * watermark, i.e. Cassandra has not caught up yet. With a watermark of
+     * one, only an empty queue has caught up.
+     */
+    private boolean isBacklogged() {
+        int caughtUp = Math.max(1, this.spillWatermark / 2);
+        for (BatchThread batchThread : this.batchThreads) {
+            if (batchThread.queue.size() >= caughtUp) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes spilled batches back to Cassandra, one at a time and only while
+     * the flush threads are keeping up, backing off while the writes fail.
+     */
+    private class ReplayThread extends Thread {
+        volatile boolean stopRequested = false;
+
+        ReplayThread() {
+            super("batch-bolt-replay-thread");
+            super.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            long backoff = REPLAY_IDLE_MILLIS;
+            while (!stopRequested) {
+                try {
+                    if (spillLog.isEmpty() || isBacklogged()) {
+                        Thread.sleep(REPLAY_IDLE_MILLIS);
+                        continue;
+                    }
+                    try {
+                        client.replaySpilled(spillLog);
+                        backoff = REPLAY_IDLE_MILLIS;
+                    } catch (InterruptedException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        LOG.warn("Unable to replay spilled batch, retrying in " + backoff + " ms.", e);
+                        Thread.sleep(backoff);
+                        backoff = Math.min(backoff * 2, MAX_REPLAY_BACKOFF_MILLIS);
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        void stopRunning() {
+            this.stopRequested = true;
+            this.interrupt();
+        }
+    }
+
+    /**
+     * A write started by {@link AbstractBatchingBolt#executeAsync(List, AsyncWrite)}.
+     */
+    protected interface AsyncWrite {
+        ListenableFuture<?> start() throws Exception;
+    }
+
+    /**
+     * Estimated size of <code>input</code> in bytes, used for
+     * <code>cassandra.batch.flush_bytes</code>. The default adds up the
+     * tuple's values; override it if a better measure is at hand.
+     */
+    protected long sizeOf(Tuple input) {
+        long bytes = 0;
+        for (Object value : input.getValues()) {
+            if (value instanceof String) {
+                bytes += ((String) value).length();
+            } else if (value instanceof byte[]) {
+                bytes += ((byte[]) value).length;
+            } else if (value instanceof ByteBuffer) {
+                bytes += ((ByteBuffer) value).remaining();
+            } else {
+                bytes += 8;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Collects tuples into batches. A batch is flushed once it holds
+     * <code>batchMaxSize</code> tuples or <code>flushBytes</code> bytes, or
+     * <code>lingerMillis</code> after its first tuple arrived, whichever comes
+     * first. With no linger time, a batch is whatever was queued when the
+     * thread got to it.
+     */
     private class BatchThread extends Thread {
 
+        final BlockingQueue<Tuple> queue;
+        // halves of rejected batches, written before the next batch
+        final Queue<List<Tuple>> retries = new ConcurrentLinkedQueue<List<Tuple>>();
         int batchMaxSize;
-        boolean stopRequested = false;
+        long flushBytes;
+        long lingerMillis;
+        volatile boolean stopRequested = false;
+        volatile long drainDeadline;
 
-        BatchThread(int batchMaxSize) {
-            super("batch-bolt-thread");
+        BatchThread(int index, BlockingQueue<Tuple> queue, int batchMaxSize, long flushBytes, long lingerMillis) {
+            super("batch-bolt-thread-" + index);
             super.setDaemon(true);
+            this.queue = queue;
             this.batchMaxSize = batchMaxSize;
+            this.flushBytes = flushBytes;
+            this.lingerMillis = lingerMillis;
         }
 
         @Override
         public void run() {
             while (!stopRequested) {
                 try {
+                    retryPending();
                     ArrayList<Tuple> batch = new ArrayList<Tuple>();
-                    // drainTo() does not block, take() does.
-                    Tuple t = queue.take();
-                    batch.add(t);
-                    if (batchMaxSize > 0) {
-                        queue.drainTo(batch, batchMaxSize);
-                    } else {
-                        queue.drainTo(batch);
+                    // drainTo() does not block, poll() does.
+                    Tuple t = queue.poll(STOP_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+                    if (t == null) {
+                        continue;
                     }
-                    executeBatch(batch);
+                    batch.add(t);
+                    fill(batch, sizeOf(t), System.currentTimeMillis() + this.lingerMillis);
+                    flush(batch);
 
                 } catch (InterruptedException e) {
                     LOG.error("Interupted in batching bolt.", e);
                 }
             }
+            // write what is left without lingering, until the deadline
+            while (System.currentTimeMillis() < this.drainDeadline) {
+                retryPending();
+                ArrayList<Tuple> batch = new ArrayList<Tuple>();
+                if (queue.drainTo(batch, this.batchMaxSize > 0 ? this.batchMaxSize : Integer.MAX_VALUE) > 0) {
+                    flush(batch);
+                } else if (retries.isEmpty()) {
+                    return;
+                }
+            }
         }
 
-        void stopRunning() {
+        private void retryPending() {
+            List<Tuple> inputs;
+            while ((inputs = retries.poll()) != null) {
+                executeBatch(inputs);
+            }
+        }
+
+        private void flush(List<Tuple> batch) {
+            if (spillLog != null && queue.size() >= spillWatermark) {
+                spillBatch(batch);
+            } else {
+                executeBatch(batch);
+            }
+        }
+
+        private void fill(List<Tuple> batch, long bytes, long deadline) throws InterruptedException {
+            while (!isFull(batch, bytes)) {
+                if (this.flushBytes > 0) {
+                    // one at a time, so the byte budget is not overshot
+                    Tuple t = queue.poll();
+                    if (t != null) {
+                        batch.add(t);
+                        bytes += sizeOf(t);
+                        continue;
+                    }
+                } else {
+                    int room = this.batchMaxSize > 0 ? this.batchMaxSize - batch.size() : Integer.MAX_VALUE;
+                    if (queue.drainTo(batch, room) > 0) {
+                        continue;
+                    }
+                }
+                // queue is empty, wait for more until the batch is due
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    return;
+                }
+                Tuple t = queue.poll(wait, TimeUnit.MILLISECONDS);
+                if (t == null) {
+                    return;
+                }
+                batch.add(t);
+                bytes += sizeOf(t);
+            }
+        }
+
+        private boolean isFull(List<Tuple> batch, long bytes) {
+            return (this.batchMaxSize > 0 && batch.size() >= this.batchMaxSize)
+                    || (this.flushBytes > 0 && bytes >= this.flushBytes);
+        }
+
+        void drainRemaining(List<Tuple> left) {
+            if (queue instanceof SpscRingBuffer) {
+                // this thread may still be polling the ring buffer
+                ((SpscRingBuffer<Tuple>) queue).drainRemaining(left);
+            } else {
+                queue.drainTo(left);
+            }
+            List<Tuple> retry;
+            while ((retry = retries.poll()) != null) {
+                left.addAll(retry);
+            }
+        }
+
+        void stopRunning(long drainDeadline) {
+            this.drainDeadline = drainDeadline;
             this.stopRequested = true;
         }
     }
 
-    public AckStrategy getAckStrategy() {
-        return ackStrategy;
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
     }
 
-    public void setAckStrategy(AckStrategy ackStrategy) {
-        this.ackStrategy = ackStrategy;
+    /**
+     * Sets what to do with tuples when the queue is full; see
+     * <code>cassandra.batch.queue_capacity</code>. The
+     * <code>cassandra.batch.overflow_policy</code> setting, if present,
+     * takes precedence.
+     */
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
     }
 }
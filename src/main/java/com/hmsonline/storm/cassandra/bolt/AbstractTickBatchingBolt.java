@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hmsonline.storm.cassandra.bolt;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import backtype.storm.Config;
+import backtype.storm.Constants;
+import backtype.storm.task.OutputCollector;
+import backtype.storm.task.TopologyContext;
+import backtype.storm.topology.IRichBolt;
+import backtype.storm.tuple.Tuple;
+import backtype.storm.utils.Utils;
+
+import com.hmsonline.storm.cassandra.StormCassandraConstants;
+import com.hmsonline.storm.cassandra.bolt.mapper.TupleMapper;
+
+/**
+ * Abstract <code>IRichBolt</code> implementation that batches
+ * <code>backtype.storm.tuple.Tuple</code> on the executor thread, without a
+ * background thread.
+ * <p/>
+ * A batch is flushed once it holds <code>cassandra.batch.max_size</code>
+ * tuples, and on every tick tuple, which the bolt asks Storm to send every
+ * <code>flushIntervalSecs</code> seconds. Writes are synchronous, so all
+ * acks and fails happen on the executor thread and a batch never waits
+ * longer than the tick interval (plus the time to write it).
+ * <p/>
+ * Subclasses implement <code>executeBatch(List<Tuple> inputs)</code>, which
+ * writes the batch and throws if the write failed. Subclasses that override
+ * <code>prepare()</code> and <code>cleanup()</code> <b><i>must</i></b> call
+ * the corresponding methods on the superclass.
+ */
+@SuppressWarnings("serial")
+public abstract class AbstractTickBatchingBolt<K, C, V> extends AbstractAckingBolt<K, C, V> implements IRichBolt {
+    public static final int DEFAULT_FLUSH_INTERVAL_SECS = 1;
+
+    private int flushIntervalSecs = DEFAULT_FLUSH_INTERVAL_SECS;
+
+    private int batchMaxSize;
+
+    private transient List<Tuple> batch;
+
+    public AbstractTickBatchingBolt(String clientConfigKey, TupleMapper<K, C, V> tupleMapper) {
+        super(clientConfigKey, tupleMapper);
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Override
+    public void prepare(Map stormConf, TopologyContext context, OutputCollector collector) {
+        super.prepare(stormConf, context);
+        this.collector = collector;
+        this.batchMaxSize = Utils.getInt(Utils.get(stormConf, StormCassandraConstants.CASSANDRA_BATCH_MAX_SIZE, 0));
+        this.batch = new ArrayList<Tuple>();
+    }
+
+    @Override
+    public void execute(Tuple input) {
+        if (isTickTuple(input)) {
+            flush();
+            return;
+        }
+        this.batch.add(input);
+        if (this.ackStrategy == AckStrategy.ACK_ON_RECEIVE) {
+            this.collector.ack(input);
+        }
+        if (this.batchMaxSize > 0 && this.batch.size() >= this.batchMaxSize) {
+            flush();
+        }
+    }
+
+    private static boolean isTickTuple(Tuple input) {
+        return Constants.SYSTEM_COMPONENT_ID.equals(input.getSourceComponent())
+                && Constants.SYSTEM_TICK_STREAM_ID.equals(input.getSourceStreamId());
+    }
+
+    /**
+     * Writes the current batch, if there is one, and acks or fails its
+     * tuples.
+     */
+    protected void flush() {
+        if (this.batch.isEmpty()) {
+            return;
+        }
+        List<Tuple> inputs = this.batch;
+        this.batch = new ArrayList<Tuple>();
+        try {
+            executeBatch(inputs);
+        } catch (Throwable e) {
+            onBatchFailed(inputs, e);
+            return;
+        }
+        onBatchSucceeded(inputs);
+    }
+
+    @Override
+    public void cleanup() {
+        // not prepared if the topology is killed early
+        if (this.batch != null) {
+            flush();
+        }
+        super.cleanup();
+    }
+
+    /**
+     * Writes a batch of tuples. Unlike
+     * {@link AbstractBatchingBolt#executeBatch(List)}, implementations do not
+     * ack or fail the tuples themselves; they throw if the write failed.
+     *
+     * @param inputs
+     * @throws Exception
+     */
+    public abstract void executeBatch(List<Tuple> inputs) throws Exception;
+
+    @Override
+    public Map<String, Object> getComponentConfiguration() {
+        Map<String, Object> conf = new HashMap<String, Object>();
+        conf.put(Config.TOPOLOGY_TICK_TUPLE_FREQ_SECS, this.flushIntervalSecs);
+        return conf;
+    }
+
+    public int getFlushIntervalSecs() {
+        return flushIntervalSecs;
+    }
+
+    /**
+     * Sets how often, in seconds, Storm sends the tick tuple that flushes
+     * the current batch. Must be set before the topology is submitted.
+     */
+    public void setFlushIntervalSecs(int flushIntervalSecs) {
+        this.flushIntervalSecs = flushIntervalSecs;
+    }
+}
@@ -20,12 +20,10 @@ package com.hmsonline.storm.cassandra.bolt;
 import java.util.List;
 import java.util.Map;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
 import backtype.storm.topology.OutputFieldsDeclarer;
 import backtype.storm.tuple.Tuple;
 
+import com.google.common.util.concurrent.ListenableFuture;
 import com.hmsonline.storm.cassandra.bolt.mapper.TupleMapper;
 
 /**
@@ -37,31 +35,35 @@ import com.hmsonline.storm.cassandra.bolt.mapper.TupleMapper;
  */
 @SuppressWarnings("serial")
 public class CassandraBatchingBolt<K, C, V> extends AbstractBatchingBolt<K, C, V> {
-    private static final Logger LOG = LoggerFactory.getLogger(CassandraBatchingBolt.class);
 
     public CassandraBatchingBolt(String clientConfigKey, TupleMapper<K, C, V> tupleMapper) {
         super(clientConfigKey, tupleMapper);
     }
 
     @Override
-    public void executeBatch(List<Tuple> inputs) {
+    public void executeBatch(final List<Tuple> inputs) {
+        if (this.isAsync()) {
+            this.executeAsync(inputs, new AsyncWrite() {
+                @Override
+                public ListenableFuture<?> start() throws Exception {
+                    return client.writeTuplesAsync(inputs, tupleMapper);
+                }
+            });
+            return;
+        }
         try {
             this.writeTuples(inputs, tupleMapper);
-            // NOTE: Changed this to ack on all or none since that is how the
-            // mutation executes.
-            if (this.ackStrategy == AckStrategy.ACK_ON_WRITE) {
-                for (Tuple tupleToAck : inputs) {
-                    this.collector.ack(tupleToAck);
-                }
-            }
+            this.onBatchSucceeded(inputs);
         } catch (Throwable e) {
-            LOG.error("Unable to write batch.", e);
-            for (Tuple tupleToAck : inputs) {
-                this.collector.fail(tupleToAck);
-            }
+            this.onBatchFailed(inputs, e);
         }
     }
 
+    @Override
+    protected boolean supportsRetry() {
+        return true;
+    }
+
     @Override
     public Map<String, Object> getComponentConfiguration() {
         return null;
@@ -26,10 +26,13 @@ import org.slf4j.LoggerFactory;
 
 import backtype.storm.task.TopologyContext;
 import backtype.storm.tuple.Tuple;
+import backtype.storm.utils.Utils;
 
+import com.hmsonline.storm.cassandra.StormCassandraConstants;
 import com.hmsonline.storm.cassandra.bolt.mapper.TupleCounterMapper;
 import com.hmsonline.storm.cassandra.bolt.mapper.TupleMapper;
 import com.hmsonline.storm.cassandra.client.AstyanaxClient;
+import com.hmsonline.storm.cassandra.client.AstyanaxClientFactory;
 
 @SuppressWarnings("serial")
 public abstract class CassandraBolt<K, C, V> implements Serializable {
@@ -51,12 +54,17 @@ public abstract class CassandraBolt<K, C, V> implements Serializable {
     @SuppressWarnings("unchecked")
     public void prepare(Map<String, Object> stormConf, TopologyContext context) {
         Map<String, Object> config = (Map<String, Object>) stormConf.get(this.clientConfigKey);
-        this.client = new AstyanaxClient<K, C, V>();
-        this.client.start(config);
+        this.client = AstyanaxClientFactory.acquire(this.clientConfigKey, config);
+        this.client.registerMetrics(context, Utils.getInt(Utils.get(stormConf, StormCassandraConstants.CASSANDRA_METRICS_BUCKET_SECS,
+                AstyanaxClient.DEFAULT_METRICS_BUCKET_SECS)));
+        if (this.tupleMapper != null) {
+            this.client.warmUp(this.tupleMapper.getKeyClass(), this.tupleMapper.getColumnNameClass(),
+                    this.tupleMapper.getColumnValueClass());
+        }
     }
 
     public void cleanup() {
-        this.client.stop();
+        AstyanaxClientFactory.release(this.clientConfigKey, this.client);
     }
 
     public void writeTuple(Tuple input, TupleMapper<K, C, V> tupleMapper) throws Exception {
@@ -19,18 +19,15 @@ package com.hmsonline.storm.cassandra.bolt;
 
 import java.util.List;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
 import backtype.storm.topology.OutputFieldsDeclarer;
 import backtype.storm.tuple.Tuple;
 
+import com.google.common.util.concurrent.ListenableFuture;
 import com.hmsonline.storm.cassandra.bolt.mapper.DefaultTupleCounterMapper;
 import com.hmsonline.storm.cassandra.bolt.mapper.TupleCounterMapper;
 
 public class CassandraCounterBatchingBolt<K, C, V> extends AbstractBatchingBolt<K, C, V> {
     private static final long serialVersionUID = 1L;
-    private static final Logger LOG = LoggerFactory.getLogger(CassandraCounterBatchingBolt.class);
 
     private TupleCounterMapper<K, C> tupleMapper;
 
@@ -50,22 +47,32 @@ public class CassandraCounterBatchingBolt<K, C, V> extends AbstractBatchingBolt<
     }
 
     @Override
-    public void executeBatch(List<Tuple> inputs) {
+    protected Object routingKey(Tuple input) {
+        return this.tupleMapper.mapToRowKey(input);
+    }
+
+    @Override
+    public void executeBatch(final List<Tuple> inputs) {
+        if (this.isAsync()) {
+            this.executeAsync(inputs, new AsyncWrite() {
+                @Override
+                public ListenableFuture<?> start() throws Exception {
+                    return client.incrementCountColumnsAsync(inputs, tupleMapper);
+                }
+            });
+            return;
+        }
         try {
             this.incrementCounters(inputs, tupleMapper);
-            // NOTE: Changed this to ack on all or none since that is how the
-            // mutation executes.
-            if (this.ackStrategy == AckStrategy.ACK_ON_WRITE) {
-                for (Tuple tupleToAck : inputs) {
-                    this.collector.ack(tupleToAck);
-                }
-            }
+            this.onBatchSucceeded(inputs);
         } catch (Throwable e) {
-            LOG.error("Unable to write batch.", e);
-            for (Tuple tupleToAck : inputs) {
-                this.collector.fail(tupleToAck);
-            }
+            this.onBatchFailed(inputs, e);
         }
     }
 
+    @Override
+    protected boolean supportsRetry() {
+        return true;
+    }
+
 }
@@ -34,6 +34,7 @@ import com.hmsonline.storm.cassandra.bolt.mapper.ColumnMapper;
 import com.hmsonline.storm.cassandra.bolt.mapper.Equality;
 import com.hmsonline.storm.cassandra.bolt.mapper.RangeQueryTupleMapper;
 import com.hmsonline.storm.cassandra.bolt.mapper.TupleMapper;
+import com.hmsonline.storm.cassandra.client.ColumnPageHandler;
 
 /**
  * A bolt implementation that emits tuples based on a combination of cassandra
@@ -47,6 +48,10 @@ public class CassandraLookupBolt<K, C, V> extends CassandraBolt<K, C, V> impleme
     private static final Logger LOG = LoggerFactory.getLogger(CassandraLookupBolt.class);
     private ColumnMapper<K, C, V> columnsMapper;
     private RangeQueryTupleMapper<K, C, V> queryTupleMapper = null;
+    private int pageSize = 0;
+    private Equality equality = Equality.EQUAL;
+    private int columnLimit = 0;
+    private boolean reversed = false;
 
     public CassandraLookupBolt(String clientConfigKey, TupleMapper<K, C, V> tupleMapper,
             ColumnMapper<K, C, V> columnsMapper) {
@@ -67,29 +72,98 @@ public class CassandraLookupBolt<K, C, V> extends CassandraBolt<K, C, V> impleme
         super.prepare(stormConf, context);
     }
 
+    /**
+     * Reads rows <code>pageSize</code> columns at a time and calls the column
+     * mapper once per page rather than once per row, which bounds the memory
+     * used by very wide rows. Only use this with column mappers that treat
+     * each column independently. 0 (the default) reads whole rows.
+     * 
+     * @param pageSize
+     */
+    public void setPageSize(int pageSize) {
+        if (pageSize < 0) {
+            throw new IllegalArgumentException("Page size must not be negative, was " + pageSize);
+        }
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Sets how range lookups treat their bounds:
+     * <code>Equality.GREATER_THAN</code> excludes the start column,
+     * <code>Equality.LESS_THAN</code> the end column. Defaults to including
+     * both.
+     * 
+     * @param equality
+     */
+    public void setEquality(Equality equality) {
+        this.equality = equality;
+    }
+
+    /**
+     * Limits range lookups to the first <code>columnLimit</code> columns (the
+     * last ones if reversed). 0 (the default) returns the whole range. Not
+     * applied to paged lookups.
+     * 
+     * @param columnLimit
+     */
+    public void setColumnLimit(int columnLimit) {
+        this.columnLimit = columnLimit;
+    }
+
+    /**
+     * Reads ranges from the end key down to the start key.
+     * 
+     * @param reversed
+     */
+    public void setReversed(boolean reversed) {
+        this.reversed = reversed;
+    }
+
     @Override
-    public void execute(Tuple input, BasicOutputCollector collector) {
+    public void execute(final Tuple input, final BasicOutputCollector collector) {
 //        String columnFamily = tupleMapper.mapToColumnFamily(input);
-        K rowKey = tupleMapper.mapToRowKey(input);
+        final K rowKey = tupleMapper.mapToRowKey(input);
         try {
+            if (this.pageSize > 0) {
+                ColumnPageHandler<C, V> handler = new ColumnPageHandler<C, V>() {
+                    @Override
+                    public void onPage(Map<C, V> columns) {
+                        emit(columnsMapper.mapToValues(rowKey, columns, input), collector);
+                    }
+                };
+                if (queryTupleMapper != null) {
+                    C start = queryTupleMapper.mapToStartkey(input);
+                    C end = queryTupleMapper.mapToEndkey(input);
+                    this.client.lookup(this.queryTupleMapper, input, start, end, this.equality, this.reversed,
+                            this.pageSize, handler);
+                } else {
+                    this.client.lookup(this.tupleMapper, input, this.pageSize, handler);
+                }
+                return;
+            }
+
             Map<C, V> colMap = null;
             if (queryTupleMapper != null) {
                 C start = queryTupleMapper.mapToStartkey(input);
                 C end = queryTupleMapper.mapToEndkey(input);
-                colMap = this.client.lookup(this.queryTupleMapper, input, start, end, Equality.EQUAL);
+                colMap = this.client.lookup(this.queryTupleMapper, input, start, end, this.equality,
+                        this.columnLimit, this.reversed);
             } else {
                 colMap = this.client.lookup(this.tupleMapper, input);
             }
 
-            List<Values> valuesToEmit = columnsMapper.mapToValues(rowKey, colMap, input);
-            for (Values values : valuesToEmit) {
-                collector.emit(values);
-            }
+            emit(columnsMapper.mapToValues(rowKey, colMap, input), collector);
         } catch (Exception e) {
             LOG.warn("Could not emit for row [" + rowKey + "] from Cassandra.", e);
         }
     }
 
+    private void emit(List<Values> valuesToEmit, BasicOutputCollector collector) {
+        for (Values values : valuesToEmit) {
+            collector.emit(values);
+        }
+    }
+
     @Override
     public void cleanup() {
         super.cleanup();
@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hmsonline.storm.cassandra.bolt;
+
+import java.util.List;
+
+import backtype.storm.topology.OutputFieldsDeclarer;
+import backtype.storm.tuple.Tuple;
+
+import com.hmsonline.storm.cassandra.bolt.mapper.TupleMapper;
+
+/**
+ * Batching bolt that writes on the executor thread, flushing on batch size
+ * and on tick tuples; see <code>AbstractTickBatchingBolt</code>. Use it
+ * instead of <code>CassandraBatchingBolt</code> when acks should not come
+ * from a background thread.
+ *
+ */
+@SuppressWarnings("serial")
+public class CassandraTickBatchingBolt<K, C, V> extends AbstractTickBatchingBolt<K, C, V> {
+
+    public CassandraTickBatchingBolt(String clientConfigKey, TupleMapper<K, C, V> tupleMapper) {
+        super(clientConfigKey, tupleMapper);
+    }
+
+    @Override
+    public void executeBatch(List<Tuple> inputs) throws Exception {
+        this.writeTuples(inputs, tupleMapper);
+    }
+
+    @Override
+    public void declareOutputFields(OutputFieldsDeclarer declarer) {
+        // By default we don't emit anything.
+    }
+
+}
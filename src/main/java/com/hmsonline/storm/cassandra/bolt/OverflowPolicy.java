@@ -0,0 +1,38 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hmsonline.storm.cassandra.bolt;
+
+/**
+ * What a batching bolt does with a tuple when its queue is full.
+ * 
+ * BLOCK: The bolt's executor thread waits until there is room in the
+ * queue, which in turn stops the bolt from taking in more tuples and
+ * pushes back on the spout.
+ * 
+ * FAIL: The tuple is failed right away, so that the spout can replay it
+ * later.
+ * 
+ * SHED: The tuple is dropped and acked, so that it is not replayed. Use
+ * only where losing data under load is acceptable.
+ *
+ */
+public enum OverflowPolicy {
+    BLOCK,
+    FAIL,
+    SHED;
+}
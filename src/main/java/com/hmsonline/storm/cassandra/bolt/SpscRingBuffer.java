@@ -0,0 +1,366 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hmsonline.storm.cassandra.bolt;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded, lock-free queue for handing elements from exactly one producer
+ * thread to exactly one consumer thread.
+ * <p/>
+ * Slots are preallocated, so unlike <code>LinkedBlockingQueue</code> no
+ * node is allocated per element, and neither side ever takes a lock. A side
+ * that has to wait (a full queue for the producer, an empty one for the
+ * consumer) does so according to its {@link WaitStrategy}.
+ * <p/>
+ * <code>offer()</code> and <code>put()</code> may only be called by the
+ * producer, and <code>poll()</code>, <code>take()</code>, <code>peek()</code>
+ * and <code>drainTo()</code> only by the consumer; using the queue from more
+ * than one producer or more than one consumer thread corrupts it. Any thread
+ * may iterate it, which sees a snapshot, and remove elements by value: a
+ * removed element is left in its slot as a marker that the consumer skips,
+ * and is still counted by <code>size()</code> until then.
+ * 
+ * @param <E>
+ */
+public class SpscRingBuffer<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+    /**
+     * How a thread waits for the other side of the buffer.
+     * 
+     * BUSY_SPIN: Re-checks in a tight loop. Lowest latency, but burns a
+     * core while waiting; only use it where each spinning thread has a core
+     * of its own, otherwise it starves the thread it is waiting for.
+     * 
+     * YIELD: Yields the CPU between checks.
+     * 
+     * PARK: Sleeps briefly between checks. Cheapest while idle, adds up to
+     * the park time in latency.
+     */
+    public enum WaitStrategy {
+        BUSY_SPIN,
+        YIELD,
+        PARK;
+    }
+
+    private static final long PARK_NANOS = 50 * 1000;
+
+    // left in the slot of a removed element
+    private static final Object REMOVED = new Object();
+
+    private final AtomicReferenceArray<Object> buffer;
+    private final int mask;
+    private final int capacity;
+    private final WaitStrategy waitStrategy;
+
+    // next slot to read, only written by the consumer
+    private final AtomicLong head = new AtomicLong();
+    // next slot to write, only written by the producer
+    private final AtomicLong tail = new AtomicLong();
+    // each side's last view of the other's index, so that the shared
+    // counters are only read when the cached view says full/empty
+    private long headCache;
+    private long tailCache;
+
+    /**
+     * @param capacity
+     *            maximum number of elements held
+     * @param waitStrategy
+     */
+    public SpscRingBuffer(int capacity, WaitStrategy waitStrategy) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive, was " + capacity);
+        }
+        if (capacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity must be at most 2^30, was " + capacity);
+        }
+        int slots = Integer.highestOneBit(capacity);
+        if (slots < capacity) {
+            slots <<= 1;
+        }
+        this.buffer = new AtomicReferenceArray<Object>(slots);
+        this.mask = slots - 1;
+        this.capacity = capacity;
+        this.waitStrategy = waitStrategy;
+    }
+
+    @Override
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        long t = this.tail.get();
+        if (t - this.headCache >= this.capacity) {
+            this.headCache = this.head.get();
+            if (t - this.headCache >= this.capacity) {
+                return false;
+            }
+        }
+        this.buffer.lazySet((int) t & this.mask, e);
+        // the ordered write publishes the element along with the index
+        this.tail.lazySet(t + 1);
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        while (true) {
+            long h = this.head.get();
+            if (h >= this.tailCache) {
+                this.tailCache = this.tail.get();
+                if (h >= this.tailCache) {
+                    return null;
+                }
+            }
+            // swapped out, so that a concurrent remove() either wins the
+            // slot or finds it empty
+            Object e = this.buffer.getAndSet((int) h & this.mask, null);
+            this.head.lazySet(h + 1);
+            if (e != REMOVED) {
+                return (E) e;
+            }
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        while (true) {
+            long h = this.head.get();
+            if (h >= this.tail.get()) {
+                return null;
+            }
+            int slot = (int) h & this.mask;
+            Object e = this.buffer.get(slot);
+            if (e != REMOVED) {
+                return (E) e;
+            }
+            // skip the removed element, as poll() would
+            if (this.buffer.compareAndSet(slot, REMOVED, null)) {
+                this.head.lazySet(h + 1);
+            }
+        }
+    }
+
+    /**
+     * Removes one element equal to <code>o</code>, if there is one. May be
+     * called from any thread.
+     */
+    @Override
+    public boolean remove(Object o) {
+        if (o == null) {
+            return false;
+        }
+        long t = this.tail.get();
+        for (long i = this.head.get(); i < t; i++) {
+            int slot = (int) i & this.mask;
+            Object e = this.buffer.get(slot);
+            if (e != null && e != REMOVED && o.equals(e) && this.buffer.compareAndSet(slot, e, REMOVED)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException {
+        while (!offer(e)) {
+            await(Long.MAX_VALUE);
+        }
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (!offer(e)) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            await(remaining);
+        }
+        return true;
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        E e;
+        while ((e = poll()) == null) {
+            await(Long.MAX_VALUE);
+        }
+        return e;
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        E e;
+        while ((e = poll()) == null) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            await(remaining);
+        }
+        return e;
+    }
+
+    private void await(long maxNanos) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        switch (this.waitStrategy) {
+        case BUSY_SPIN:
+            break;
+        case YIELD:
+            Thread.yield();
+            break;
+        default:
+            LockSupport.parkNanos(Math.min(maxNanos, PARK_NANOS));
+            break;
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        int drained = 0;
+        E e;
+        while (drained < maxElements && (e = poll()) != null) {
+            c.add(e);
+            drained++;
+        }
+        return drained;
+    }
+
+    /**
+     * Moves every element still queued to <code>c</code>. Unlike
+     * <code>drainTo()</code> it may be called while the consumer is still
+     * running; each element ends up either here or with the consumer. The
+     * producer must have stopped.
+     */
+    int drainRemaining(Collection<? super E> c) {
+        int drained = 0;
+        long t = this.tail.get();
+        for (long i = this.head.get(); i < t; i++) {
+            int slot = (int) i & this.mask;
+            Object e = this.buffer.get(slot);
+            if (e != null && e != REMOVED && this.buffer.compareAndSet(slot, e, REMOVED)) {
+                @SuppressWarnings("unchecked")
+                E element = (E) e;
+                c.add(element);
+                drained++;
+            }
+        }
+        return drained;
+    }
+
+    @Override
+    public int size() {
+        // read head first: tail only grows, so the difference cannot go
+        // negative; it can overshoot if both sides move in between
+        long h = this.head.get();
+        return (int) Math.min(this.tail.get() - h, this.capacity);
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return this.capacity - size();
+    }
+
+    /**
+     * Returns an iterator over a snapshot of the elements, in the order they
+     * will be polled. It does not see later changes, and its
+     * <code>remove()</code> removes the element from the queue if it has not
+     * been polled yet.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        long t = this.tail.get();
+        long h = this.head.get();
+        List<Object> elements = new ArrayList<Object>((int) Math.min(t - h, this.capacity));
+        List<Integer> slots = new ArrayList<Integer>((int) Math.min(t - h, this.capacity));
+        for (long i = h; i < t; i++) {
+            elements.add(this.buffer.get((int) i & this.mask));
+        }
+        // slots the consumer got past during the copy may have been reused
+        // by the producer since, drop them
+        long from = Math.max(h, this.head.get());
+        List<Object> snapshot = new ArrayList<Object>(elements.size());
+        for (long i = from; i < t; i++) {
+            Object e = elements.get((int) (i - h));
+            if (e != null && e != REMOVED) {
+                snapshot.add(e);
+                slots.add((int) i & this.mask);
+            }
+        }
+        return new SnapshotIterator(snapshot, slots);
+    }
+
+    private class SnapshotIterator implements Iterator<E> {
+        private final List<Object> elements;
+        private final List<Integer> slots;
+        private int next = 0;
+        private int last = -1;
+
+        SnapshotIterator(List<Object> elements, List<Integer> slots) {
+            this.elements = elements;
+            this.slots = slots;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.next < this.elements.size();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public E next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            this.last = this.next++;
+            return (E) this.elements.get(this.last);
+        }
+
+        @Override
+        public void remove() {
+            if (this.last < 0) {
+                throw new IllegalStateException();
+            }
+            // a no-op if the element was polled in the meantime
+            buffer.compareAndSet(this.slots.get(this.last), this.elements.get(this.last), REMOVED);
+            this.last = -1;
+        }
+    }
+}
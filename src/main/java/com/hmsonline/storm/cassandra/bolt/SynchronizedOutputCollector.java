@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hmsonline.storm.cassandra.bolt;
+
+import java.util.Collection;
+import java.util.List;
+
+import backtype.storm.task.IOutputCollector;
+import backtype.storm.tuple.Tuple;
+
+/**
+ * <code>IOutputCollector</code> that serializes all calls to the collector
+ * it wraps. Storm's <code>OutputCollector</code> is not thread-safe, while a
+ * batching bolt acks and fails tuples from its flush threads and from
+ * asynchronous write callbacks as well as from the executor thread.
+ */
+class SynchronizedOutputCollector implements IOutputCollector {
+    private final IOutputCollector delegate;
+
+    SynchronizedOutputCollector(IOutputCollector delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public synchronized List<Integer> emit(String streamId, Collection<Tuple> anchors, List<Object> tuple) {
+        return this.delegate.emit(streamId, anchors, tuple);
+    }
+
+    @Override
+    public synchronized void emitDirect(int taskId, String streamId, Collection<Tuple> anchors, List<Object> tuple) {
+        this.delegate.emitDirect(taskId, streamId, anchors, tuple);
+    }
+
+    @Override
+    public synchronized void ack(Tuple input) {
+        this.delegate.ack(input);
+    }
+
+    @Override
+    public synchronized void fail(Tuple input) {
+        this.delegate.fail(input);
+    }
+
+    @Override
+    public synchronized void reportError(Throwable error) {
+        this.delegate.reportError(error);
+    }
+}
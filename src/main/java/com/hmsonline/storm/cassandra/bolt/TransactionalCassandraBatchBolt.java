@@ -34,7 +34,7 @@ import backtype.storm.tuple.Tuple;
 
 import com.hmsonline.storm.cassandra.bolt.mapper.TupleMapper;
 
-@SuppressWarnings({ "serial", "rawtypes" })
+@SuppressWarnings({ "serial", "rawtypes", "deprecation" })
 public class TransactionalCassandraBatchBolt<K, C, V> extends CassandraBatchingBolt<K, C, V> implements IBatchBolt,
         ICommitter {
     private static final Logger LOG = LoggerFactory.getLogger(TransactionalCassandraBatchBolt.class);
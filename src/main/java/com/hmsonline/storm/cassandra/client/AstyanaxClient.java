@@ -20,44 +20,75 @@ package com.hmsonline.storm.cassandra.client;
 
 import java.beans.IntrospectionException;
 import java.beans.PropertyDescriptor;
+import java.io.IOException;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import storm.trident.tuple.TridentTuple;
+import backtype.storm.task.IMetricsContext;
 import backtype.storm.tuple.Tuple;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import com.hmsonline.storm.cassandra.StormCassandraConstants;
 import com.hmsonline.storm.cassandra.bolt.mapper.Equality;
 import com.hmsonline.storm.cassandra.bolt.mapper.TridentTupleMapper;
 import com.hmsonline.storm.cassandra.bolt.mapper.TupleCounterMapper;
 import com.hmsonline.storm.cassandra.bolt.mapper.TupleMapper;
+import com.hmsonline.storm.cassandra.exceptions.PartialWriteException;
 import com.netflix.astyanax.AstyanaxConfiguration;
 import com.netflix.astyanax.AstyanaxContext;
+import com.netflix.astyanax.Cluster;
+import com.netflix.astyanax.ColumnListMutation;
 import com.netflix.astyanax.Keyspace;
 import com.netflix.astyanax.MutationBatch;
 import com.netflix.astyanax.Serializer;
 import com.netflix.astyanax.annotations.Component;
+import com.netflix.astyanax.connectionpool.ConnectionPool;
 import com.netflix.astyanax.connectionpool.ConnectionPoolConfiguration;
 import com.netflix.astyanax.connectionpool.ConnectionPoolMonitor;
+import com.netflix.astyanax.connectionpool.Host;
+import com.netflix.astyanax.connectionpool.HostConnectionPool;
 import com.netflix.astyanax.connectionpool.NodeDiscoveryType;
 import com.netflix.astyanax.connectionpool.OperationResult;
+import com.netflix.astyanax.connectionpool.exceptions.BadRequestException;
+import com.netflix.astyanax.connectionpool.exceptions.ConnectionException;
 import com.netflix.astyanax.connectionpool.impl.ConnectionPoolConfigurationImpl;
 import com.netflix.astyanax.connectionpool.impl.ConnectionPoolType;
 import com.netflix.astyanax.connectionpool.impl.SimpleAuthenticationCredentials;
@@ -68,7 +99,10 @@ import com.netflix.astyanax.model.Column;
 import com.netflix.astyanax.model.ColumnFamily;
 import com.netflix.astyanax.model.ColumnList;
 import com.netflix.astyanax.model.Composite;
+import com.netflix.astyanax.model.Row;
+import com.netflix.astyanax.model.Rows;
 import com.netflix.astyanax.query.RowQuery;
+import com.netflix.astyanax.query.RowSliceQuery;
 import com.netflix.astyanax.serializers.AnnotatedCompositeSerializer;
 import com.netflix.astyanax.serializers.BigIntegerSerializer;
 import com.netflix.astyanax.serializers.BooleanSerializer;
@@ -101,7 +135,38 @@ public class AstyanaxClient<K, C, V> {
     public static final String ASTYANAX_CONFIGURATION = "astyanax.configuration";
     public static final String ASTYANAX_CONNECTION_POOL_CONFIGURATION = "astyanax.connectionPoolConfiguration";
     public static final String ASTYANAX_CONNECTION_POOL_MONITOR = "astyanax.connectioPoolMonitor";
+    public static final int DEFAULT_METRICS_BUCKET_SECS = 60;
+    private static final Map<Class<?>, Serializer<?>> SERIALIZERS = new ConcurrentHashMap<Class<?>, Serializer<?>>();
+    private static final Map<Class<?>, List<ComponentField>> COMPONENT_FIELDS = new ConcurrentHashMap<Class<?>, List<ComponentField>>();
     private Map<String, AstyanaxContext<Keyspace>> astyanaxContext = new HashMap<String, AstyanaxContext<Keyspace>>();
+    // contexts by keyspace name exactly as callers spell it, to avoid lowercasing on every lookup
+    private final Map<String, AstyanaxContext<Keyspace>> contextsByName = new ConcurrentHashMap<String, AstyanaxContext<Keyspace>>();
+    // with cassandra.pool.shared, a single context for the cluster and its keyspaces by lowercased name
+    private AstyanaxContext<Cluster> clusterContext;
+    // contexts created with cassandra.startup.lazy that no keyspace operation has needed yet
+    private final Set<AstyanaxContext<Keyspace>> unstartedContexts = Collections
+            .newSetFromMap(new ConcurrentHashMap<AstyanaxContext<Keyspace>, Boolean>());
+    private static final int DEFAULT_STARTUP_THREADS = 4;
+    private final Map<String, Keyspace> sharedPoolKeyspaces = new ConcurrentHashMap<String, Keyspace>();
+    private final Map<String, ColumnFamily<K, C>> columnFamilies = new ConcurrentHashMap<String, ColumnFamily<K, C>>();
+    private final Map<String, Integer> rowWidths = new ConcurrentHashMap<String, Integer>();
+    private double fullRowSliceRatio = 0;
+    public static final int DEFAULT_MAX_KEYS_PER_QUERY = 100;
+    private int maxKeysPerQuery = DEFAULT_MAX_KEYS_PER_QUERY;
+    private static final long RING_REFRESH_MILLIS = 60 * 1000;
+    private final Map<String, TokenRing> tokenRings = new ConcurrentHashMap<String, TokenRing>();
+    private final Set<String> ringRefreshes = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private ExecutorService ringRefresher;
+    private final Random random = new Random();
+    private boolean tokenAware = false;
+    // allowance for the Thrift Mutation/Column structs and timestamp around each column
+    private static final int COLUMN_OVERHEAD_BYTES = 24;
+    private static final int ROW_OVERHEAD_BYTES = 16;
+    private long maxBatchBytes = 0;
+    private boolean coalesceWrites = false;
+    private final BatchSizeMetric batchSizes = new BatchSizeMetric();
+    private final AtomicBoolean metricsRegistered = new AtomicBoolean(false);
+    private volatile boolean stopped = false;
 
 
 
@@ -118,6 +183,40 @@ public class AstyanaxClient<K, C, V> {
 
     protected List<AstyanaxContext<Keyspace>> createContext(Map<String, Object> config) {
         List<AstyanaxContext<Keyspace>> returnVal = new ArrayList<AstyanaxContext<Keyspace>>();
+        Map<String, Object> settings = settings(config);
+        for (String keyspace : keyspaceNames(config)) {
+            returnVal.add(new AstyanaxContext.Builder()
+                            .forCluster((String) settings.get(CASSANDRA_CLUSTER_NAME))
+                            .forKeyspace(keyspace)
+                            .withAstyanaxConfiguration((AstyanaxConfiguration) settings.get(ASTYANAX_CONFIGURATION))
+                            .withConnectionPoolConfiguration(
+                                            (ConnectionPoolConfiguration) settings
+                                                            .get(ASTYANAX_CONNECTION_POOL_CONFIGURATION))
+                            .withConnectionPoolMonitor(
+                                            (ConnectionPoolMonitor) settings.get(ASTYANAX_CONNECTION_POOL_MONITOR))
+                            .buildKeyspace(ThriftFamilyFactory.getInstance()));
+        }
+        return returnVal;
+    }
+
+    /**
+     * Creates a single context for the whole cluster, whose connection pool
+     * is shared by every keyspace. Connections switch keyspace per
+     * operation. <code>keyspace</code> is only used to discover the ring.
+     */
+    protected AstyanaxContext<Cluster> createClusterContext(Map<String, Object> config, String keyspace) {
+        Map<String, Object> settings = settings(config);
+        return new AstyanaxContext.Builder()
+                .forCluster((String) settings.get(CASSANDRA_CLUSTER_NAME))
+                .forKeyspace(keyspace)
+                .withAstyanaxConfiguration((AstyanaxConfiguration) settings.get(ASTYANAX_CONFIGURATION))
+                .withConnectionPoolConfiguration(
+                        (ConnectionPoolConfiguration) settings.get(ASTYANAX_CONNECTION_POOL_CONFIGURATION))
+                .withConnectionPoolMonitor((ConnectionPoolMonitor) settings.get(ASTYANAX_CONNECTION_POOL_MONITOR))
+                .buildCluster(ThriftFamilyFactory.getInstance());
+    }
+
+    private Map<String, Object> settings(Map<String, Object> config) {
         Map<String, Object> settings = Maps.newHashMap();
         for (Map.Entry<String, Object> defaultEntry : DEFAULTS.entrySet()) {
             if (config.containsKey(defaultEntry.getKey())) {
@@ -132,6 +231,14 @@ public class AstyanaxClient<K, C, V> {
             ConnectionPoolConfigurationImpl cpConfig = (ConnectionPoolConfigurationImpl) settings
                     .get(ASTYANAX_CONNECTION_POOL_CONFIGURATION);
             cpConfig.setSeeds((String) config.get(StormCassandraConstants.CASSANDRA_HOST));
+            Object maxConnsPerHost = config.get(StormCassandraConstants.CASSANDRA_POOL_MAX_CONNS_PER_HOST);
+            if (maxConnsPerHost != null) {
+                cpConfig.setMaxConnsPerHost(Integer.parseInt(maxConnsPerHost.toString()));
+            }
+            Object initConnsPerHost = config.get(StormCassandraConstants.CASSANDRA_POOL_INIT_CONNS_PER_HOST);
+            if (initConnsPerHost != null) {
+                cpConfig.setInitConnsPerHost(Integer.parseInt(initConnsPerHost.toString()));
+            }
             Long port = (Long)config.get(StormCassandraConstants.CASSANDRA_PORT);
             if(port != null){
             	cpConfig.setPort(port.intValue());
@@ -149,41 +256,222 @@ public class AstyanaxClient<K, C, V> {
             }
         }
 
+        return settings;
+    }
+
+    private static Set<String> keyspaceNames(Map<String, Object> config) {
         @SuppressWarnings("unchecked")
-        Collection<String> keyspaces = (Collection<String>) config.get(StormCassandraConstants.CASSANDRA_KEYSPACE);
-        for (String keyspace : keyspaces) {
-            returnVal.add(new AstyanaxContext.Builder()
-                            .forCluster((String) settings.get(CASSANDRA_CLUSTER_NAME))
-                            .forKeyspace(keyspace)
-                            .withAstyanaxConfiguration((AstyanaxConfiguration) settings.get(ASTYANAX_CONFIGURATION))
-                            .withConnectionPoolConfiguration(
-                                            (ConnectionPoolConfiguration) settings
-                                                            .get(ASTYANAX_CONNECTION_POOL_CONFIGURATION))
-                            .withConnectionPoolMonitor(
-                                            (ConnectionPoolMonitor) settings.get(ASTYANAX_CONNECTION_POOL_MONITOR))
-                            .buildKeyspace(ThriftFamilyFactory.getInstance()));
+        Collection<String> configured = (Collection<String>) config.get(StormCassandraConstants.CASSANDRA_KEYSPACE);
+        Set<String> keyspaces = new LinkedHashSet<String>();
+        if (configured != null) {
+            keyspaces.addAll(configured);
         }
-        return returnVal;
+        // the keyspace of CassandraMapState, which shares this client
+        String stateKeyspace = (String) config.get(StormCassandraConstants.CASSANDRA_STATE_KEYSPACE);
+        if (stateKeyspace != null) {
+            keyspaces.add(stateKeyspace);
+        }
+        return keyspaces;
     }
 
     public void start(Map<String, Object> config) {
+        Object ratio = config.get(StormCassandraConstants.CASSANDRA_LOOKUP_FULL_ROW_SLICE_RATIO);
+        if (ratio != null) {
+            this.fullRowSliceRatio = Double.parseDouble(ratio.toString());
+        }
+        Object maxKeys = config.get(StormCassandraConstants.CASSANDRA_LOOKUP_MAX_KEYS_PER_QUERY);
+        if (maxKeys != null) {
+            this.maxKeysPerQuery = Math.max(1, Integer.parseInt(maxKeys.toString()));
+        }
+        Object tokenAware = config.get(StormCassandraConstants.CASSANDRA_BATCH_TOKEN_AWARE);
+        this.tokenAware = tokenAware != null && Boolean.parseBoolean(tokenAware.toString());
+        if (this.tokenAware) {
+            this.ringRefresher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "cassandra-ring-refresh");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        Object maxBytes = config.get(StormCassandraConstants.CASSANDRA_BATCH_MAX_BYTES);
+        if (maxBytes != null) {
+            this.maxBatchBytes = Long.parseLong(maxBytes.toString());
+        }
+        Object coalesce = config.get(StormCassandraConstants.CASSANDRA_BATCH_COALESCE);
+        this.coalesceWrites = coalesce != null && Boolean.parseBoolean(coalesce.toString());
+        Object sharedPool = config.get(StormCassandraConstants.CASSANDRA_POOL_SHARED);
+        if (sharedPool != null && Boolean.parseBoolean(sharedPool.toString())) {
+            startSharedPool(config);
+            return;
+        }
+        Object lazy = config.get(StormCassandraConstants.CASSANDRA_STARTUP_LAZY);
+        Object threads = config.get(StormCassandraConstants.CASSANDRA_STARTUP_THREADS);
+        Object jitter = config.get(StormCassandraConstants.CASSANDRA_STARTUP_JITTER_MS);
         try {
             List<AstyanaxContext<Keyspace>> contexts = createContext(config);
             for (AstyanaxContext<Keyspace> context : contexts) {
                 this.addAstyanaxContext(context.getKeyspaceName(), context);
+                this.unstartedContexts.add(context);
+            }
+            if (lazy == null || !Boolean.parseBoolean(lazy.toString())) {
+                startContexts(contexts,
+                        threads != null ? Integer.parseInt(threads.toString()) : DEFAULT_STARTUP_THREADS,
+                        jitter != null ? Integer.parseInt(jitter.toString()) : 0);
+            }
+        } catch (Throwable e) {
+            LOG.warn("Astyanax initialization failed.", e);
+            // close the pools that did start, nothing else will
+            stop();
+            throw new IllegalStateException("Failed to prepare Astyanax", e);
+        }
+    }
+
+    /**
+     * Starts <code>contexts</code> and tests their connections, on up to
+     * <code>threads</code> threads. Each start is delayed by a random amount
+     * of up to <code>jitterMillis</code>, so that the tasks of a topology do
+     * not all connect to the seeds at the same moment.
+     */
+    private void startContexts(List<AstyanaxContext<Keyspace>> contexts, int threads, final int jitterMillis)
+            throws Exception {
+        List<Callable<Void>> starts = new ArrayList<Callable<Void>>(contexts.size());
+        for (final AstyanaxContext<Keyspace> context : contexts) {
+            starts.add(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    if (jitterMillis > 0) {
+                        Thread.sleep(random.nextInt(jitterMillis));
+                    }
+                    // test the connection
+                    started(context).getEntity().describeKeyspace();
+                    return null;
+                }
+            });
+        }
+        threads = Math.max(1, Math.min(threads, starts.size()));
+        if (threads == 1) {
+            for (Callable<Void> start : starts) {
+                start.call();
+            }
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (Future<Void> future : executor.invokeAll(starts)) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 
-                this.getAstyanaxContext(context.getKeyspaceName()).start();
+    /**
+     * Starts <code>context</code> if that has not been done yet, e.g. with
+     * <code>cassandra.startup.lazy</code> on the first use of its keyspace.
+     */
+    private AstyanaxContext<Keyspace> started(AstyanaxContext<Keyspace> context) {
+        if (this.unstartedContexts.contains(context)) {
+            synchronized (context) {
+                if (this.unstartedContexts.contains(context)) {
+                    LOG.debug("Starting context for keyspace [" + context.getKeyspaceName() + "].");
+                    context.start();
+                    this.unstartedContexts.remove(context);
+                }
+            }
+        }
+        return context;
+    }
+
+    /**
+     * Resolves the serializers for <code>classes</code> ahead of the first
+     * read or write, e.g. a mapper's key, column name and value classes.
+     */
+    public void warmUp(Class<?>... classes) {
+        for (Class<?> clazz : classes) {
+            if (clazz != null) {
+                serializerFor(clazz);
+            }
+        }
+    }
+
+    /**
+     * Starts the one pool shared by every keyspace. There is nothing to
+     * start per keyspace, so <code>cassandra.startup.threads</code> above one
+     * and <code>cassandra.startup.lazy</code> are rejected rather than
+     * silently ignored.
+     */
+    private void startSharedPool(Map<String, Object> config) {
+        Object lazy = config.get(StormCassandraConstants.CASSANDRA_STARTUP_LAZY);
+        Object threads = config.get(StormCassandraConstants.CASSANDRA_STARTUP_THREADS);
+        if ((lazy != null && Boolean.parseBoolean(lazy.toString()))
+                || (threads != null && Integer.parseInt(threads.toString()) > 1)) {
+            throw new IllegalArgumentException(StormCassandraConstants.CASSANDRA_STARTUP_THREADS + " and "
+                    + StormCassandraConstants.CASSANDRA_STARTUP_LAZY + " do not apply to "
+                    + StormCassandraConstants.CASSANDRA_POOL_SHARED);
+        }
+        Object jitter = config.get(StormCassandraConstants.CASSANDRA_STARTUP_JITTER_MS);
+        try {
+            if (jitter != null && Integer.parseInt(jitter.toString()) > 0) {
+                Thread.sleep(this.random.nextInt(Integer.parseInt(jitter.toString())));
+            }
+            Set<String> names = keyspaceNames(config);
+            this.clusterContext = createClusterContext(config, names.isEmpty() ? null : names.iterator().next());
+            this.clusterContext.start();
+            Cluster cluster = this.clusterContext.getEntity();
+            for (String name : names) {
+                Keyspace keyspace = cluster.getKeyspace(name);
                 // test the connection
-                this.getKeyspace(context.getKeyspaceName()).describeKeyspace();
+                keyspace.describeKeyspace();
+                this.sharedPoolKeyspaces.put(name.toLowerCase(), keyspace);
             }
         } catch (Throwable e) {
             LOG.warn("Astyanax initialization failed.", e);
+            // close the pools that did start, nothing else will
+            stop();
             throw new IllegalStateException("Failed to prepare Astyanax", e);
         }
     }
 
+    /**
+     * Registers this client's metrics with <code>context</code>. A client
+     * may be shared by several tasks, so only the first call registers
+     * anything.
+     */
+    public void registerMetrics(IMetricsContext context, int timeBucketSizeInSecs) {
+        if (context != null && this.metricsRegistered.compareAndSet(false, true)) {
+            context.registerMetric("cassandra.batch_size", this.batchSizes, timeBucketSizeInSecs);
+        }
+    }
+
     public void stop() {
-        this.getAstyanaxContext().shutdown();
+        this.stopped = true;
+        if (this.ringRefresher != null) {
+            this.ringRefresher.shutdownNow();
+        }
+        for (AstyanaxContext<Keyspace> context : this.astyanaxContext.values()) {
+            if (!this.unstartedContexts.contains(context)) {
+                context.shutdown();
+            }
+        }
+        if (this.clusterContext != null) {
+            this.clusterContext.shutdown();
+        }
+    }
+
+    /**
+     * @return whether {@link #stop()} has been called
+     */
+    public boolean isStopped() {
+        return this.stopped;
     }
 
     @SuppressWarnings("unchecked")
@@ -191,19 +479,17 @@ public class AstyanaxClient<K, C, V> {
         String cf = tupleMapper.mapToColumnFamily(input);
         String keyspace = tupleMapper.mapToKeyspace(input);
         K rowKey = tupleMapper.mapToRowKey(input);
-        Class<K> keyClass = tupleMapper.getKeyClass();
-        Class<C> colClass = tupleMapper.getColumnNameClass();
-
-        ColumnFamily<K, C> columnFamily = new ColumnFamily<K, C>(cf, (Serializer<K>) serializerFor(keyClass),
-                (Serializer<C>) serializerFor(colClass));
+        ColumnFamily<K, C> columnFamily = columnFamily(cf, tupleMapper.getKeyClass(), tupleMapper.getColumnNameClass());
         OperationResult<ColumnList<C>> result;
         result = this.getKeyspace(keyspace).prepareQuery(columnFamily).getKey(rowKey).execute();
         ColumnList<C> columns = (ColumnList<C>) result.getResult();
+        recordRowWidth(keyspace, cf, columns.size());
+        Serializer<V> valueSerializer = serializerFor(tupleMapper.getColumnValueClass());
         HashMap<C, V> retval = new HashMap<C, V>();
         Iterator<Column<C>> it = columns.iterator();
         while (it.hasNext()) {
             Column<C> col = it.next();
-            retval.put(col.getName(), col.getValue((Serializer<V>) serializerFor(tupleMapper.getColumnValueClass())));
+            retval.put(col.getName(), col.getValue(valueSerializer));
         }
         return retval;
     }
@@ -213,19 +499,17 @@ public class AstyanaxClient<K, C, V> {
         String cf = tupleMapper.mapToColumnFamily(input);
         String keyspace = tupleMapper.mapToKeyspace(input);
         K rowKey = tupleMapper.mapToRowKey(input);
-        Class<K> keyClass = tupleMapper.getKeyClass();
-        Class<C> colClass = tupleMapper.getColumnNameClass();
-
-        ColumnFamily<K, C> columnFamily = new ColumnFamily<K, C>(cf, (Serializer<K>) serializerFor(keyClass),
-                (Serializer<C>) serializerFor(colClass));
+        ColumnFamily<K, C> columnFamily = columnFamily(cf, tupleMapper.getKeyClass(), tupleMapper.getColumnNameClass());
         OperationResult<ColumnList<C>> result;
         result = this.getKeyspace(keyspace).prepareQuery(columnFamily).getKey(rowKey).execute();
         ColumnList<C> columns = (ColumnList<C>) result.getResult();
+        recordRowWidth(keyspace, cf, columns.size());
+        Serializer<V> valueSerializer = serializerFor(tupleMapper.getColumnValueClass());
         HashMap<C, V> retval = new HashMap<C, V>();
         Iterator<Column<C>> it = columns.iterator();
         while (it.hasNext()) {
             Column<C> col = it.next();
-            retval.put(col.getName(), col.getValue((Serializer<V>) serializerFor(tupleMapper.getColumnValueClass())));
+            retval.put(col.getName(), col.getValue(valueSerializer));
         }
         return retval;
     }
@@ -235,25 +519,9 @@ public class AstyanaxClient<K, C, V> {
         String cf = tupleMapper.mapToColumnFamily(input);
         String keyspace = tupleMapper.mapToKeyspace(input);
         K rowKey = tupleMapper.mapToRowKey(input);
-        Class<K> keyClass = tupleMapper.getKeyClass();
-        Class<C> colClass = tupleMapper.getColumnNameClass();
-
-        ColumnFamily<K, C> columnFamily = new ColumnFamily<K, C>(cf, (Serializer<K>) serializerFor(keyClass),
-                (Serializer<C>) serializerFor(colClass));
-
-        HashMap<C, V> retval = new HashMap<C, V>();
-        for (C c : slice) {
-            RowQuery<K, C> query = this.getKeyspace(keyspace).prepareQuery(columnFamily).getKey(rowKey);
-            query = query.withColumnRange(getRangeBuilder(c, c, null, (Serializer<C>) serializerFor(colClass)));
-            OperationResult<ColumnList<C>> result = query.execute();
-            Iterator<Column<C>> it = result.getResult().iterator();
-            while (it.hasNext()) {
-                Column<C> col = it.next();
-                retval.put(col.getName(),
-                        col.getValue((Serializer<V>) serializerFor(tupleMapper.getColumnValueClass())));
-            }
-        }
-        return retval;
+        ColumnFamily<K, C> columnFamily = columnFamily(cf, tupleMapper.getKeyClass(), tupleMapper.getColumnNameClass());
+        return sliceLookup(keyspace, columnFamily, rowKey, slice,
+                AstyanaxClient.<V> serializerFor(tupleMapper.getColumnValueClass()));
     }
 
     @SuppressWarnings("unchecked")
@@ -262,259 +530,1286 @@ public class AstyanaxClient<K, C, V> {
         String cf = tupleMapper.mapToColumnFamily(input);
         String keyspace = tupleMapper.mapToKeyspace(input);
         K rowKey = tupleMapper.mapToRowKey(input);
-        Class<K> keyClass = tupleMapper.getKeyClass();
-        Class<C> colClass = tupleMapper.getColumnNameClass();
-
-        ColumnFamily<K, C> columnFamily = new ColumnFamily<K, C>(cf, (Serializer<K>) serializerFor(keyClass),
-                (Serializer<C>) serializerFor(colClass));
+        ColumnFamily<K, C> columnFamily = columnFamily(cf, tupleMapper.getKeyClass(), tupleMapper.getColumnNameClass());
+        return sliceLookup(keyspace, columnFamily, rowKey, slice,
+                AstyanaxClient.<V> serializerFor(tupleMapper.getColumnValueClass()));
+    }
 
-        HashMap<C, V> retval = new HashMap<C, V>();
-        for (C c : slice) {
+    /**
+     * Reads the columns in <code>slice</code> from a single row, the columns
+     * named in full in one round trip. When they cover more than the
+     * configured fraction of the row's (estimated) width, the whole row is
+     * fetched and filtered instead. Composite names with unset trailing
+     * components match every column with the same leading components and
+     * are read as ranges, one round trip each.
+     */
+    private Map<C, V> sliceLookup(String keyspace, ColumnFamily<K, C> columnFamily, K rowKey, List<C> slice,
+            Serializer<V> valueSerializer) throws Exception {
+        Slice sliceParts = slice(slice, columnFamily.getColumnSerializer());
+        Map<C, V> retval = new LinkedHashMap<C, V>();
+        if (!sliceParts.names.isEmpty()) {
+            boolean fullRow = sliceParts.ranges.isEmpty()
+                    && isFullRowCheaper(keyspace, columnFamily.getName(), sliceParts.names.size());
             RowQuery<K, C> query = this.getKeyspace(keyspace).prepareQuery(columnFamily).getKey(rowKey);
-            query = query.withColumnRange(getRangeBuilder(c, c, null, (Serializer<C>) serializerFor(colClass)));
+            if (!fullRow) {
+                query = query.withColumnSlice(sliceParts.names);
+            }
+            ColumnList<C> columns = query.execute().getResult();
+            LOG.debug("Selecting " + sliceParts.names.size() + " columns" + (fullRow ? " from full row" : "")
+                    + " returned [" + columns.size() + "] results.");
+            if (fullRow) {
+                recordRowWidth(keyspace, columnFamily.getName(), columns.size());
+            } else {
+                seedRowWidth(keyspace, columnFamily.getName(), columns.size());
+            }
+            retval.putAll(toMap(columns,
+                    fullRow ? rawNames(sliceParts.names, columnFamily.getColumnSerializer()) : null,
+                    valueSerializer));
+        }
+        for (ColumnRange range : sliceParts.ranges) {
+            retval.putAll(rangeLookup(keyspace, columnFamily, rowKey, range, valueSerializer));
+        }
+        return retval;
+    }
 
-            OperationResult<ColumnList<C>> result = query.execute();
+    /**
+     * Splits <code>slice</code> into the column names that can be read by
+     * name and the composite names with unset (<code>null</code>) trailing
+     * components, which are turned into prefix ranges.
+     */
+    @SuppressWarnings("rawtypes")
+    private Slice slice(List<C> slice, Serializer<C> serializer) throws IllegalAccessException,
+            IntrospectionException, InvocationTargetException {
+        Slice retval = new Slice();
+        for (C name : slice) {
+            boolean prefix = false;
+            if (serializer instanceof AnnotatedCompositeSerializer) {
+                for (ComponentField field : componentFieldsFor(name.getClass())) {
+                    if (field.getValue(name) == null) {
+                        prefix = true;
+                        break;
+                    }
+                }
+            }
+            if (prefix) {
+                retval.ranges.add(columnRange(name, name, null, serializer, 0, false));
+            } else {
+                retval.names.add(name);
+            }
+        }
+        return retval;
+    }
 
-            LOG.debug("Selecting [" + c.toString() + "] returned [" + result.getResult().size() + "] results.");
+    /**
+     * A column slice, split by {@link AstyanaxClient#slice(List, Serializer)}.
+     */
+    private class Slice {
+        final List<C> names = new ArrayList<C>();
+        final List<ColumnRange> ranges = new ArrayList<ColumnRange>();
+    }
 
-            Iterator<Column<C>> it = result.getResult().iterator();
-            while (it.hasNext()) {
-                Column<C> col = it.next();
-                LOG.debug("Adding [" + col.getName() + "]=>[" + col.getStringValue() + "]");
-                retval.put(col.getName(),
-                        col.getValue((Serializer<V>) serializerFor(tupleMapper.getColumnValueClass())));
-            }
+    /**
+     * Whether a slice of <code>sliceSize</code> columns should be served by a
+     * full-row fetch, based on the row width observed by earlier reads of the
+     * same column family.
+     */
+    private boolean isFullRowCheaper(String keyspace, String columnFamily, int sliceSize) {
+        if (this.fullRowSliceRatio <= 0) {
+            return false;
+        }
+        Integer width = this.rowWidths.get(keyspace + ":" + columnFamily);
+        return width != null && width > 0 && sliceSize > this.fullRowSliceRatio * width;
+    }
 
+    private void recordRowWidth(String keyspace, String columnFamily, int width) {
+        if (this.fullRowSliceRatio <= 0) {
+            return;
+        }
+        String key = keyspace + ":" + columnFamily;
+        Integer previous = this.rowWidths.get(key);
+        // exponentially weighted so that a single odd row does not flip the
+        // decision for the whole column family
+        this.rowWidths.put(key, previous == null ? width : (previous * 3 + width) / 4);
+    }
+
+    /**
+     * Records the number of columns a slice read found. The row is at least
+     * that wide, so the estimate is only ever raised by it; without an
+     * estimate, this lets a slice-only workload try a full-row read, which
+     * then records the actual width.
+     */
+    private void seedRowWidth(String keyspace, String columnFamily, int found) {
+        if (this.fullRowSliceRatio <= 0) {
+            return;
+        }
+        String key = keyspace + ":" + columnFamily;
+        Integer previous = this.rowWidths.get(key);
+        if (previous == null || previous < found) {
+            this.rowWidths.put(key, found);
+        }
+    }
+
+    private static <C> Set<ByteBuffer> rawNames(Collection<C> names, Serializer<C> serializer) {
+        Set<ByteBuffer> retval = new HashSet<ByteBuffer>();
+        for (C name : names) {
+            retval.add(serializer.toByteBuffer(name));
+        }
+        return retval;
+    }
+
+    /**
+     * Copies <code>columns</code> into a map, keeping only the columns whose
+     * serialized name is in <code>wanted</code> (all columns if
+     * <code>null</code>).
+     */
+    private Map<C, V> toMap(ColumnList<C> columns, Set<ByteBuffer> wanted, Serializer<V> valueSerializer) {
+        return toMap(columns, wanted, null, 0, valueSerializer);
+    }
+
+    /**
+     * Copies <code>columns</code> into a map in column order, skipping the
+     * columns whose serialized name is in <code>excluded</code> and stopping
+     * after <code>limit</code> columns (if positive).
+     */
+    private Map<C, V> toMap(ColumnList<C> columns, Set<ByteBuffer> wanted, Set<ByteBuffer> excluded, int limit,
+            Serializer<V> valueSerializer) {
+        Map<C, V> retval = new LinkedHashMap<C, V>();
+        for (Column<C> col : columns) {
+            if (limit > 0 && retval.size() == limit) {
+                break;
+            }
+            if ((wanted == null || wanted.contains(col.getRawName()))
+                    && (excluded == null || !excluded.contains(col.getRawName()))) {
+                retval.put(col.getName(), col.getValue(valueSerializer));
+            }
         }
         return retval;
     }
 
-    @SuppressWarnings("unchecked")
     public Map<C, V> lookup(TupleMapper<K, C, V> tupleMapper, Tuple input, C start, C end, Equality equality)
             throws Exception {
+        return lookup(tupleMapper, input, start, end, equality, 0, false);
+    }
+
+    /**
+     * Reads the columns between <code>start</code> and <code>end</code>.
+     * <code>Equality.GREATER_THAN</code> excludes <code>start</code> and
+     * <code>Equality.LESS_THAN</code> excludes <code>end</code>; every other
+     * value includes both bounds.
+     * 
+     * @param limit
+     *            maximum number of columns to return, or 0 for all of them
+     * @param reversed
+     *            read from <code>end</code> down to <code>start</code>, e.g.
+     *            to get the latest <code>limit</code> columns of a
+     *            time-ordered row
+     * @return the columns in the order they were read
+     */
+    public Map<C, V> lookup(TupleMapper<K, C, V> tupleMapper, Tuple input, C start, C end, Equality equality,
+            int limit, boolean reversed) throws Exception {
         if (start == null || end == null) {
             return null;
         }
-
-        String cf = tupleMapper.mapToColumnFamily(input);
-        String keyspace = tupleMapper.mapToKeyspace(input);
-        K rowKey = tupleMapper.mapToRowKey(input);
-        Class<K> keyClass = tupleMapper.getKeyClass();
-        Class<C> colClass = tupleMapper.getColumnNameClass();
-        ColumnFamily<K, C> columnFamily = new ColumnFamily<K, C>(cf, (Serializer<K>) serializerFor(keyClass),
-                (Serializer<C>) serializerFor(colClass));
-        OperationResult<ColumnList<C>> result = this.getKeyspace(keyspace).prepareQuery(columnFamily).getKey(rowKey)
-                .withColumnRange(getRangeBuilder(start, end, equality, (Serializer<C>) serializerFor(colClass)))
-                .execute();
-        ColumnList<C> columns = (ColumnList<C>) result.getResult();
-        HashMap<C, V> retval = new HashMap<C, V>();
-        Iterator<Column<C>> it = columns.iterator();
-        while (it.hasNext()) {
-            Column<C> col = it.next();
-            retval.put(col.getName(), col.getValue((Serializer<V>) serializerFor(tupleMapper.getColumnValueClass())));
-        }
-        return retval;
+        ColumnFamily<K, C> columnFamily = columnFamily(tupleMapper.mapToColumnFamily(input),
+                tupleMapper.getKeyClass(), tupleMapper.getColumnNameClass());
+        return rangeLookup(tupleMapper.mapToKeyspace(input), columnFamily, tupleMapper.mapToRowKey(input),
+                columnRange(start, end, equality, columnFamily.getColumnSerializer(), limit, reversed),
+                AstyanaxClient.<V> serializerFor(tupleMapper.getColumnValueClass()));
     }
 
-    @SuppressWarnings("unchecked")
     public Map<C, V> lookup(TridentTupleMapper<K, C, V> tupleMapper, TridentTuple input, C start, C end,
             Equality equality) throws Exception {
+        return lookup(tupleMapper, input, start, end, equality, 0, false);
+    }
+
+    /**
+     * See {@link #lookup(TupleMapper, Tuple, Object, Object, Equality, int, boolean)}.
+     */
+    public Map<C, V> lookup(TridentTupleMapper<K, C, V> tupleMapper, TridentTuple input, C start, C end,
+            Equality equality, int limit, boolean reversed) throws Exception {
         if (start == null || end == null) {
             return null;
         }
+        ColumnFamily<K, C> columnFamily = columnFamily(tupleMapper.mapToColumnFamily(input),
+                tupleMapper.getKeyClass(), tupleMapper.getColumnNameClass());
+        return rangeLookup(tupleMapper.mapToKeyspace(input), columnFamily, tupleMapper.mapToRowKey(input),
+                columnRange(start, end, equality, columnFamily.getColumnSerializer(), limit, reversed),
+                AstyanaxClient.<V> serializerFor(tupleMapper.getColumnValueClass()));
+    }
 
-        String cf = tupleMapper.mapToColumnFamily(input);
-        String keyspace = tupleMapper.mapToKeyspace(input);
-        K rowKey = tupleMapper.mapToRowKey(input);
-        Class<K> keyClass = tupleMapper.getKeyClass();
-        Class<C> colClass = tupleMapper.getColumnNameClass();
-        ColumnFamily<K, C> columnFamily = new ColumnFamily<K, C>(cf, (Serializer<K>) serializerFor(keyClass),
-                (Serializer<C>) serializerFor(colClass));
+    private Map<C, V> rangeLookup(String keyspace, ColumnFamily<K, C> columnFamily, K rowKey, ColumnRange range,
+            Serializer<V> valueSerializer) throws Exception {
+        ColumnList<C> columns = this.getKeyspace(keyspace).prepareQuery(columnFamily).getKey(rowKey)
+                .withColumnRange(range.range).execute().getResult();
+        return toMap(columns, null, range.excluded, range.limit, valueSerializer);
+    }
 
-        RowQuery<K, C> query = this.getKeyspace(keyspace).prepareQuery(columnFamily).getKey(rowKey);
+    /**
+     * Reads a whole row <code>pageSize</code> columns at a time, handing each
+     * page to <code>handler</code> as it arrives, so that only one page of a
+     * wide row is held in memory at once.
+     */
+    public void lookup(TupleMapper<K, C, V> tupleMapper, Tuple input, int pageSize,
+            ColumnPageHandler<C, V> handler) throws Exception {
+        ColumnFamily<K, C> columnFamily = columnFamily(tupleMapper.mapToColumnFamily(input),
+                tupleMapper.getKeyClass(), tupleMapper.getColumnNameClass());
+        readPages(tupleMapper.mapToKeyspace(input), columnFamily, tupleMapper.mapToRowKey(input),
+                new ColumnRange(new RangeBuilder().setLimit(pageSize).build(), 0), pageSize,
+                AstyanaxClient.<V> serializerFor(tupleMapper.getColumnValueClass()), handler);
+    }
 
-        query = query.withColumnRange(getRangeBuilder(start, end, equality, (Serializer<C>) serializerFor(colClass)));
+    /**
+     * Paged variant of {@link #lookup(TridentTupleMapper, TridentTuple)}; see
+     * {@link #lookup(TupleMapper, Tuple, int, ColumnPageHandler)}.
+     */
+    public void lookup(TridentTupleMapper<K, C, V> tupleMapper, TridentTuple input, int pageSize,
+            ColumnPageHandler<C, V> handler) throws Exception {
+        ColumnFamily<K, C> columnFamily = columnFamily(tupleMapper.mapToColumnFamily(input),
+                tupleMapper.getKeyClass(), tupleMapper.getColumnNameClass());
+        readPages(tupleMapper.mapToKeyspace(input), columnFamily, tupleMapper.mapToRowKey(input),
+                new ColumnRange(new RangeBuilder().setLimit(pageSize).build(), 0), pageSize,
+                AstyanaxClient.<V> serializerFor(tupleMapper.getColumnValueClass()), handler);
+    }
 
-        OperationResult<ColumnList<C>> result = query.execute();
-        ColumnList<C> columns = (ColumnList<C>) result.getResult();
-        HashMap<C, V> retval = new HashMap<C, V>();
-        Iterator<Column<C>> it = columns.iterator();
-        while (it.hasNext()) {
-            Column<C> col = it.next();
-            retval.put(col.getName(), col.getValue((Serializer<V>) serializerFor(tupleMapper.getColumnValueClass())));
+    /**
+     * Paged variant of {@link #lookup(TupleMapper, Tuple, Object, Object, Equality)};
+     * see {@link #lookup(TupleMapper, Tuple, int, ColumnPageHandler)}.
+     */
+    public void lookup(TupleMapper<K, C, V> tupleMapper, Tuple input, C start, C end, Equality equality,
+            int pageSize, ColumnPageHandler<C, V> handler) throws Exception {
+        lookup(tupleMapper, input, start, end, equality, false, pageSize, handler);
+    }
+
+    /**
+     * Paged variant of
+     * {@link #lookup(TupleMapper, Tuple, Object, Object, Equality, int, boolean)}:
+     * reads the range from <code>end</code> down to <code>start</code> if
+     * <code>reversed</code>.
+     */
+    public void lookup(TupleMapper<K, C, V> tupleMapper, Tuple input, C start, C end, Equality equality,
+            boolean reversed, int pageSize, ColumnPageHandler<C, V> handler) throws Exception {
+        if (start == null || end == null) {
+            return;
+        }
+        ColumnFamily<K, C> columnFamily = columnFamily(tupleMapper.mapToColumnFamily(input),
+                tupleMapper.getKeyClass(), tupleMapper.getColumnNameClass());
+        readPages(tupleMapper.mapToKeyspace(input), columnFamily, tupleMapper.mapToRowKey(input),
+                columnRange(start, end, equality, columnFamily.getColumnSerializer(), pageSize, reversed), pageSize,
+                AstyanaxClient.<V> serializerFor(tupleMapper.getColumnValueClass()), handler);
+    }
+
+    /**
+     * Paged variant of
+     * {@link #lookup(TridentTupleMapper, TridentTuple, Object, Object, Equality)};
+     * see {@link #lookup(TupleMapper, Tuple, int, ColumnPageHandler)}.
+     */
+    public void lookup(TridentTupleMapper<K, C, V> tupleMapper, TridentTuple input, C start, C end,
+            Equality equality, int pageSize, ColumnPageHandler<C, V> handler) throws Exception {
+        lookup(tupleMapper, input, start, end, equality, false, pageSize, handler);
+    }
+
+    /**
+     * See {@link #lookup(TupleMapper, Tuple, Object, Object, Equality, boolean, int, ColumnPageHandler)}.
+     */
+    public void lookup(TridentTupleMapper<K, C, V> tupleMapper, TridentTuple input, C start, C end,
+            Equality equality, boolean reversed, int pageSize, ColumnPageHandler<C, V> handler) throws Exception {
+        if (start == null || end == null) {
+            return;
+        }
+        ColumnFamily<K, C> columnFamily = columnFamily(tupleMapper.mapToColumnFamily(input),
+                tupleMapper.getKeyClass(), tupleMapper.getColumnNameClass());
+        readPages(tupleMapper.mapToKeyspace(input), columnFamily, tupleMapper.mapToRowKey(input),
+                columnRange(start, end, equality, columnFamily.getColumnSerializer(), pageSize, reversed), pageSize,
+                AstyanaxClient.<V> serializerFor(tupleMapper.getColumnValueClass()), handler);
+    }
+
+    /**
+     * Reads <code>range</code> one page at a time. Each query after the first
+     * starts at the last column handed out, since a column slice has no
+     * exclusive start, and asks for one column more to make up for it; that
+     * column is dropped. A query that comes back short ends the range.
+     */
+    private void readPages(String keyspace, ColumnFamily<K, C> columnFamily, K rowKey, ColumnRange range,
+            int pageSize, Serializer<V> valueSerializer, ColumnPageHandler<C, V> handler) throws Exception {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be positive, was " + pageSize);
+        }
+        ByteBufferRange pageRange = range.range;
+        ByteBuffer last = null;
+        int width = 0;
+        int pages = 0;
+        while (true) {
+            ColumnList<C> columns = this.getKeyspace(keyspace).prepareQuery(columnFamily).getKey(rowKey)
+                    .withColumnRange(pageRange).execute().getResult();
+            Map<C, V> page = new LinkedHashMap<C, V>();
+            boolean full = false;
+            for (Column<C> col : columns) {
+                ByteBuffer name = col.getRawName();
+                if (name.equals(last)) {
+                    continue;
+                }
+                if (page.size() == pageSize) {
+                    // the first query asks for extra columns to make up for
+                    // excluded bounds, which need not exist
+                    full = true;
+                    break;
+                }
+                last = name;
+                // excluded bounds only show up in the first or last page
+                if (range.excluded == null || !range.excluded.contains(name)) {
+                    page.put(col.getName(), col.getValue(valueSerializer));
+                }
+            }
+            width += page.size();
+            if (!page.isEmpty()) {
+                pages++;
+                handler.onPage(page);
+            }
+            if (!full && columns.size() < pageRange.getLimit()) {
+                break;
+            }
+            pageRange = new RangeBuilder().setStart(last.duplicate(), ByteBufferSerializer.get())
+                    .setEnd(range.range.getEnd().duplicate(), ByteBufferSerializer.get()).setLimit(pageSize + 1)
+                    .setReversed(range.range.isReversed()).build();
+        }
+        LOG.debug("Paged lookup of row [" + rowKey + "] in " + columnFamily.getName() + " read [" + width
+                + "] columns in [" + pages + "] pages.");
+    }
+
+    /**
+     * Fetches the full rows for a batch of Trident tuples.
+     * <p/>
+     * Rows are read with multi-row (<code>getKeySlice</code>) queries of up
+     * to <code>cassandra.lookup.max_keys_per_query</code> keys per
+     * keyspace/column family rather than one query per tuple. The returned
+     * list is aligned with <code>inputs</code>; tuples that map to the same
+     * row key each receive their own copy of the row.
+     *
+     * @param tupleMapper
+     * @param inputs
+     * @return
+     * @throws Exception
+     */
+    public List<Map<C, V>> batchLookup(TridentTupleMapper<K, C, V> tupleMapper, List<TridentTuple> inputs)
+            throws Exception {
+        return batchLookup(tupleMapper, inputs, null, null, null, null);
+    }
+
+    /**
+     * Column slice variant of
+     * {@link #batchLookup(TridentTupleMapper, List)}: every tuple in
+     * <code>inputs</code> is queried for the same <code>slice</code>.
+     */
+    public List<Map<C, V>> batchLookup(TridentTupleMapper<K, C, V> tupleMapper, List<TridentTuple> inputs,
+            List<C> slice) throws Exception {
+        return batchLookup(tupleMapper, inputs, slice, null, null, null);
+    }
+
+    /**
+     * Column range variant of
+     * {@link #batchLookup(TridentTupleMapper, List)}: every tuple in
+     * <code>inputs</code> is queried for the same range.
+     */
+    public List<Map<C, V>> batchLookup(TridentTupleMapper<K, C, V> tupleMapper, List<TridentTuple> inputs,
+            C start, C end, Equality equality) throws Exception {
+        if (start == null || end == null) {
+            List<Map<C, V>> retval = new ArrayList<Map<C, V>>(inputs.size());
+            for (int i = 0; i < inputs.size(); i++) {
+                retval.add(null);
+            }
+            return retval;
+        }
+        return batchLookup(tupleMapper, inputs, null, start, end, equality);
+    }
+
+    /**
+     * Serializes <code>names</code> with the column name serializer of
+     * <code>tupleMapper</code>, e.g. to compare column names whose class does
+     * not implement <code>equals()</code>.
+     */
+    public List<ByteBuffer> columnNameBytes(TridentTupleMapper<K, C, V> tupleMapper, List<C> names) {
+        Serializer<C> colSerializer = serializerFor(tupleMapper.getColumnNameClass());
+        List<ByteBuffer> retval = new ArrayList<ByteBuffer>(names.size());
+        for (C name : names) {
+            retval.add(colSerializer.toByteBuffer(name));
         }
         return retval;
     }
 
     @SuppressWarnings("unchecked")
+    private List<Map<C, V>> batchLookup(TridentTupleMapper<K, C, V> tupleMapper, List<TridentTuple> inputs,
+            List<C> slice, C start, C end, Equality equality) throws Exception {
+        Serializer<K> keySerializer = serializerFor(tupleMapper.getKeyClass());
+        Serializer<C> colSerializer = serializerFor(tupleMapper.getColumnNameClass());
+        Serializer<V> valueSerializer = serializerFor(tupleMapper.getColumnValueClass());
+
+        // group the distinct row keys by keyspace and column family
+        List<List<String>> familyForInput = new ArrayList<List<String>>(inputs.size());
+        List<ByteBuffer> rawKeyForInput = new ArrayList<ByteBuffer>(inputs.size());
+        Map<List<String>, Map<ByteBuffer, K>> keysByFamily = new LinkedHashMap<List<String>, Map<ByteBuffer, K>>();
+        for (TridentTuple input : inputs) {
+            List<String> family = Arrays.asList(tupleMapper.mapToKeyspace(input), tupleMapper.mapToColumnFamily(input));
+            K rowKey = tupleMapper.mapToRowKey(input);
+            ByteBuffer rawKey = keySerializer.toByteBuffer(rowKey);
+            Map<ByteBuffer, K> keys = keysByFamily.get(family);
+            if (keys == null) {
+                keys = new LinkedHashMap<ByteBuffer, K>();
+                keysByFamily.put(family, keys);
+            }
+            keys.put(rawKey, rowKey);
+            familyForInput.add(family);
+            rawKeyForInput.add(rawKey);
+        }
+
+        Slice sliceParts = slice != null ? slice(slice, colSerializer) : null;
+        ColumnRange range = start != null && end != null ? columnRange(start, end, equality, colSerializer, 0, false)
+                : null;
+        Map<List<String>, Map<ByteBuffer, Map<C, V>>> rowsByFamily = new HashMap<List<String>, Map<ByteBuffer, Map<C, V>>>();
+        for (Map.Entry<List<String>, Map<ByteBuffer, K>> entry : keysByFamily.entrySet()) {
+            String keyspace = entry.getKey().get(0);
+            ColumnFamily<K, C> columnFamily = columnFamily(entry.getKey().get(1), tupleMapper.getKeyClass(),
+                    tupleMapper.getColumnNameClass());
+            Map<ByteBuffer, Map<C, V>> rowMap = new HashMap<ByteBuffer, Map<C, V>>();
+            // a Thrift call per chunk, so that a large batch neither exceeds
+            // the frame size nor runs into the RPC timeout
+            for (List<K> keys : Iterables.partition(entry.getValue().values(), this.maxKeysPerQuery)) {
+                if (sliceParts == null) {
+                    readRows(keyspace, columnFamily, keys, range, null, false, rowMap, valueSerializer);
+                    continue;
+                }
+                if (!sliceParts.names.isEmpty()) {
+                    boolean fullRow = sliceParts.ranges.isEmpty()
+                            && isFullRowCheaper(keyspace, columnFamily.getName(), sliceParts.names.size());
+                    readRows(keyspace, columnFamily, keys, null, sliceParts.names, fullRow, rowMap, valueSerializer);
+                }
+                for (ColumnRange prefix : sliceParts.ranges) {
+                    readRows(keyspace, columnFamily, keys, prefix, null, false, rowMap, valueSerializer);
+                }
+            }
+            rowsByFamily.put(entry.getKey(), rowMap);
+        }
+
+        // fan the rows back out in input order
+        List<Map<C, V>> retval = new ArrayList<Map<C, V>>(inputs.size());
+        for (int i = 0; i < inputs.size(); i++) {
+            Map<C, V> columns = rowsByFamily.get(familyForInput.get(i)).get(rawKeyForInput.get(i));
+            retval.add(columns != null ? new LinkedHashMap<C, V>(columns) : new HashMap<C, V>());
+        }
+        return retval;
+    }
+
+    /**
+     * Reads <code>keys</code> with one multi-row query and adds their columns
+     * to <code>rowMap</code>: the columns named in <code>names</code>, the
+     * columns in <code>range</code>, or the whole rows if both are
+     * <code>null</code>. With <code>fullRow</code>, the columns in
+     * <code>names</code> are picked out of the whole rows.
+     */
+    private void readRows(String keyspace, ColumnFamily<K, C> columnFamily, List<K> keys, ColumnRange range,
+            List<C> names, boolean fullRow, Map<ByteBuffer, Map<C, V>> rowMap, Serializer<V> valueSerializer)
+            throws Exception {
+        RowSliceQuery<K, C> query = this.getKeyspace(keyspace).prepareQuery(columnFamily).getKeySlice(keys);
+        if (names != null && !fullRow) {
+            query = query.withColumnSlice(names);
+        } else if (range != null) {
+            query = query.withColumnRange(range.range);
+        }
+        Rows<K, C> rows = query.execute().getResult();
+        LOG.debug("Multi-row lookup of [" + keys.size() + "] keys in " + keyspace + ":" + columnFamily.getName()
+                + " returned [" + rows.size() + "] rows.");
+        Set<ByteBuffer> wanted = fullRow ? rawNames(names, columnFamily.getColumnSerializer()) : null;
+        for (Row<K, C> row : rows) {
+            ColumnList<C> columns = row.getColumns();
+            if (names != null && !fullRow) {
+                seedRowWidth(keyspace, columnFamily.getName(), columns.size());
+            } else if (range == null) {
+                recordRowWidth(keyspace, columnFamily.getName(), columns.size());
+            }
+            Map<C, V> rowColumns = rowMap.get(row.getRawKey());
+            if (rowColumns == null) {
+                rowColumns = new LinkedHashMap<C, V>();
+                rowMap.put(row.getRawKey(), rowColumns);
+            }
+            rowColumns.putAll(toMap(columns, wanted, range != null ? range.excluded : null, 0, valueSerializer));
+        }
+    }
+
     public void writeTuple(Tuple input, TupleMapper<K, C, V> tupleMapper) throws Exception {
-        String columnFamilyName = tupleMapper.mapToColumnFamily(input);
-        String keyspace = tupleMapper.mapToKeyspace(input);
-        K rowKey = tupleMapper.mapToRowKey(input);
-        MutationBatch mutation = getKeyspace(keyspace).prepareMutationBatch();
-        ColumnFamily<K, C> columnFamily = new ColumnFamily<K, C>(columnFamilyName,
-                (Serializer<K>) serializerFor(tupleMapper.getKeyClass()),
-                (Serializer<C>) serializerFor(tupleMapper.getColumnNameClass()));
-        this.addTupleToMutation(input, columnFamily, rowKey, mutation, tupleMapper);
-        mutation.execute();
+        this.writeTuples(Collections.singletonList(input), tupleMapper);
     }
 
-    @SuppressWarnings("unchecked")
     public void writeTuple(TridentTuple input, TridentTupleMapper<K, C, V> tupleMapper) throws Exception {
-        String columnFamilyName = tupleMapper.mapToColumnFamily(input);
-        String keyspace = tupleMapper.mapToKeyspace(input);
-        K rowKey = tupleMapper.mapToRowKey(input);
-        MutationBatch mutation = getKeyspace(keyspace).prepareMutationBatch();
-        ColumnFamily<K, C> columnFamily = new ColumnFamily<K, C>(columnFamilyName,
-                (Serializer<K>) serializerFor(tupleMapper.getKeyClass()),
-                (Serializer<C>) serializerFor(tupleMapper.getColumnNameClass()));
-        this.addTupleToMutation(input, columnFamily, rowKey, mutation, tupleMapper);
-        mutation.execute();
+        this.writeTuples(Collections.singletonList(input), tupleMapper);
     }
-    
-    @SuppressWarnings({ "static-access", "unchecked" })
+
     public void writeTuples(List<TridentTuple> inputs, TridentTupleMapper<K, C, V> tupleMapper) throws Exception {
-        Map<String, MutationBatch> mutations = new HashMap<String, MutationBatch>();
+        execute(prepareMutations(inputs, tupleMapper));
+    }
+
+    public void writeTuples(List<Tuple> inputs, TupleMapper<K, C, V> tupleMapper) throws Exception {
+        execute(prepareMutations(inputs, tupleMapper));
+    }
+
+    /**
+     * Asynchronous variant of {@link #writeTuple(Tuple, TupleMapper)}.
+     */
+    public ListenableFuture<List<OperationResult<Void>>> writeTupleAsync(Tuple input,
+            TupleMapper<K, C, V> tupleMapper) throws Exception {
+        return this.writeTuplesAsync(Collections.singletonList(input), tupleMapper);
+    }
+
+    /**
+     * Asynchronous variant of {@link #writeTuple(TridentTuple, TridentTupleMapper)}.
+     */
+    public ListenableFuture<List<OperationResult<Void>>> writeTupleAsync(TridentTuple input,
+            TridentTupleMapper<K, C, V> tupleMapper) throws Exception {
+        return this.writeTuplesAsync(Collections.singletonList(input), tupleMapper);
+    }
+
+    /**
+     * Builds the mutations for <code>inputs</code> on the calling thread and
+     * sends them without waiting for the result. The returned future
+     * completes when every keyspace's batch has been written. If batches for
+     * several keyspaces were sent and some failed, it fails with a
+     * {@link PartialWriteException}.
+     * 
+     * @param inputs
+     * @param tupleMapper
+     * @return
+     * @throws Exception
+     *             if the tuples cannot be mapped to mutations
+     */
+    public ListenableFuture<List<OperationResult<Void>>> writeTuplesAsync(List<TridentTuple> inputs,
+            TridentTupleMapper<K, C, V> tupleMapper) throws Exception {
+        return executeAsync(prepareMutations(inputs, tupleMapper));
+    }
+
+    /**
+     * Asynchronous variant of {@link #writeTuples(List, TupleMapper)}; see
+     * {@link #writeTuplesAsync(List, TridentTupleMapper)}.
+     */
+    public ListenableFuture<List<OperationResult<Void>>> writeTuplesAsync(List<Tuple> inputs,
+            TupleMapper<K, C, V> tupleMapper) throws Exception {
+        return executeAsync(prepareMutations(inputs, tupleMapper));
+    }
+
+    /**
+     * Builds the mutations for <code>inputs</code> as
+     * {@link #writeTuples(List, TupleMapper)} would, but appends them to
+     * <code>log</code> instead of sending them. They keep the timestamps
+     * they were built with, so replaying them later does not overwrite
+     * anything written in the meantime.
+     * 
+     * @throws IOException
+     *             if the log is full
+     */
+    public void spillTuples(List<Tuple> inputs, TupleMapper<K, C, V> tupleMapper, SpillLog log) throws Exception {
+        List<SpillLog.Entry> entries = new ArrayList<SpillLog.Entry>();
+        for (PendingBatch batch : prepareMutations(inputs, tupleMapper)) {
+            entries.add(new SpillLog.Entry(batch.keyspace, batch.mutation.serialize()));
+        }
+        if (!log.append(entries)) {
+            throw new IOException("Spill log [" + log.getFile() + "] is full.");
+        }
+    }
+
+    /**
+     * Writes the oldest entry of <code>log</code> to Cassandra and removes
+     * it from the log.
+     * 
+     * @return <code>false</code> if the log was empty
+     */
+    public boolean replaySpilled(SpillLog log) throws Exception {
+        SpillLog.Entry entry = log.peek();
+        if (entry == null) {
+            return false;
+        }
+        MutationBatch mutation = getKeyspace(entry.keyspace).prepareMutationBatch();
+        mutation.deserialize(entry.mutation.duplicate());
+        try {
+            mutation.execute();
+        } catch (BadRequestException e) {
+            // retrying will not help, and would hold up everything behind it
+            LOG.error("Dropping spilled batch for keyspace [" + entry.keyspace + "] rejected by Cassandra.", e);
+        }
+        log.remove(entry);
+        return true;
+    }
+
+    private List<PendingBatch> prepareMutations(List<TridentTuple> inputs,
+            TridentTupleMapper<K, C, V> tupleMapper) {
+        Serializer<K> keySerializer = serializerFor(tupleMapper.getKeyClass());
+        Serializer<C> nameSerializer = serializerFor(tupleMapper.getColumnNameClass());
+        Serializer<V> valueSerializer = serializerFor(tupleMapper.getColumnValueClass());
+        BatchBuilder batches = new BatchBuilder();
+        CoalescedWrites coalesced = this.coalesceWrites ? new CoalescedWrites(nameSerializer) : null;
         for (TridentTuple input : inputs) {
             String keyspace = tupleMapper.mapToKeyspace(input);
-            MutationBatch mutation = mutations.get(keyspace);
-            if(mutation == null) {
-                mutation = getKeyspace(keyspace).prepareMutationBatch();
-                mutations.put(keyspace, mutation);
-            }
-            
-            String columnFamilyName = tupleMapper.mapToColumnFamily(input);
             K rowKey = tupleMapper.mapToRowKey(input);
-            ColumnFamily<K, C> columnFamily = new ColumnFamily<K, C>(columnFamilyName,
-                    (Serializer<K>) serializerFor(tupleMapper.getKeyClass()),
-                    (Serializer<C>) this.serializerFor(tupleMapper.getColumnNameClass()));
-            this.addTupleToMutation(input, columnFamily, rowKey, mutation, tupleMapper);
-        }
-        for(String key : mutations.keySet()) {
-            mutations.get(key).execute();
+            ByteBuffer rawKey = keySerializer.toByteBuffer(rowKey);
+            ColumnFamily<K, C> columnFamily = columnFamily(tupleMapper.mapToColumnFamily(input),
+                    tupleMapper.getKeyClass(), tupleMapper.getColumnNameClass());
+            Map<C, V> columns = tupleMapper.mapToColumns(input);
+            if (coalesced != null) {
+                CoalescedRow row = coalesced.rowFor(keyspace, columnFamily, rowKey, rawKey);
+                row.inputs.add(input);
+                if (tupleMapper.shouldDelete(input)) {
+                    row.delete(columns.keySet());
+                } else {
+                    row.put(serializeValues(columns, valueSerializer));
+                }
+            } else if (tupleMapper.shouldDelete(input)) {
+                PendingBatch batch = batches.batchFor(keyspace, rawKey,
+                        estimateRowBytes(rawKey, columns.keySet(), nameSerializer, null));
+                batch.inputs.add(input);
+                ColumnListMutation<C> row = batch.mutation.withRow(columnFamily, rowKey);
+                for (C columnName : columns.keySet()) {
+                    row.deleteColumn(columnName);
+                }
+            } else {
+                Map<C, ByteBuffer> values = serializeValues(columns, valueSerializer);
+                PendingBatch batch = batches.batchFor(keyspace, rawKey,
+                        estimateRowBytes(rawKey, values.keySet(), nameSerializer, values.values()));
+                batch.inputs.add(input);
+                putColumns(batch.mutation.withRow(columnFamily, rowKey), values);
+            }
         }
+        return coalesced != null ? coalesced.build(batches) : batches.build();
     }
 
-    @SuppressWarnings({ "static-access", "unchecked" })
-    public void writeTuples(List<Tuple> inputs, TupleMapper<K, C, V> tupleMapper) throws Exception {
-        Map<String, MutationBatch> mutations = new HashMap<String, MutationBatch>();
+    private List<PendingBatch> prepareMutations(List<Tuple> inputs, TupleMapper<K, C, V> tupleMapper) {
+        Serializer<K> keySerializer = serializerFor(tupleMapper.getKeyClass());
+        Serializer<C> nameSerializer = serializerFor(tupleMapper.getColumnNameClass());
+        Serializer<V> valueSerializer = serializerFor(tupleMapper.getColumnValueClass());
+        BatchBuilder batches = new BatchBuilder();
+        CoalescedWrites coalesced = this.coalesceWrites ? new CoalescedWrites(nameSerializer) : null;
         for (Tuple input : inputs) {
             String keyspace = tupleMapper.mapToKeyspace(input);
-            MutationBatch mutation = mutations.get(keyspace);
-            if(mutation == null) {
-                mutation = getKeyspace(keyspace).prepareMutationBatch();
-                mutations.put(keyspace, mutation);
-            }
-            
-            String columnFamilyName = tupleMapper.mapToColumnFamily(input);
             K rowKey = tupleMapper.mapToRowKey(input);
-            ColumnFamily<K, C> columnFamily = new ColumnFamily<K, C>(columnFamilyName,
-                    (Serializer<K>) serializerFor(tupleMapper.getKeyClass()),
-                    (Serializer<C>) this.serializerFor(tupleMapper.getColumnNameClass()));
-            this.addTupleToMutation(input, columnFamily, rowKey, mutation, tupleMapper);
-        }
-        for(String key : mutations.keySet()) {
-            mutations.get(key).execute();
+            ByteBuffer rawKey = keySerializer.toByteBuffer(rowKey);
+            ColumnFamily<K, C> columnFamily = columnFamily(tupleMapper.mapToColumnFamily(input),
+                    tupleMapper.getKeyClass(), tupleMapper.getColumnNameClass());
+            Map<C, ByteBuffer> values = serializeValues(tupleMapper.mapToColumns(input), valueSerializer);
+            if (coalesced != null) {
+                CoalescedRow row = coalesced.rowFor(keyspace, columnFamily, rowKey, rawKey);
+                row.inputs.add(input);
+                row.put(values);
+                continue;
+            }
+            PendingBatch batch = batches.batchFor(keyspace, rawKey,
+                    estimateRowBytes(rawKey, values.keySet(), nameSerializer, values.values()));
+            batch.inputs.add(input);
+            putColumns(batch.mutation.withRow(columnFamily, rowKey), values);
         }
+        return coalesced != null ? coalesced.build(batches) : batches.build();
     }
 
-    @SuppressWarnings({ "static-access", "unchecked" })
-    private void addTupleToMutation(Tuple input, ColumnFamily<K, C> columnFamily, K rowKey, MutationBatch mutation,
-            TupleMapper<K, C, V> tupleMapper) {
-        Map<C, V> columns = tupleMapper.mapToColumns(input);
+    /**
+     * Serializes the column values up front, so that their size is known
+     * before picking a batch and they are not serialized a second time by
+     * the mutation.
+     */
+    private static <C, V> Map<C, ByteBuffer> serializeValues(Map<C, V> columns, Serializer<V> valueSerializer) {
+        Map<C, ByteBuffer> values = new LinkedHashMap<C, ByteBuffer>(columns.size() * 2);
         for (Map.Entry<C, V> entry : columns.entrySet()) {
-            mutation.withRow(columnFamily, rowKey).putColumn(entry.getKey(), entry.getValue(),
-                    (Serializer<V>) this.serializerFor(tupleMapper.getColumnValueClass()), null);
+            values.put(entry.getKey(), valueSerializer.toByteBuffer(entry.getValue()));
         }
+        return values;
     }
 
-    private void addTupleToMutation(TridentTuple input, ColumnFamily<K, C> columnFamily, K rowKey,
-            MutationBatch mutation, TridentTupleMapper<K, C, V> tupleMapper) {
-        Map<C, V> columns = tupleMapper.mapToColumns(input);
-        if (tupleMapper.shouldDelete(input)) {
-            for (Map.Entry<C, V> entry : columns.entrySet()) {
-                mutation.withRow(columnFamily, rowKey).deleteColumn(entry.getKey());
+    private static <C> void putColumns(ColumnListMutation<C> row, Map<C, ByteBuffer> values) {
+        for (Map.Entry<C, ByteBuffer> entry : values.entrySet()) {
+            row.putColumn(entry.getKey(), entry.getValue(), ByteBufferSerializer.get(), null);
+        }
+    }
+
+    /**
+     * Estimates the size of a row mutation on the wire: the key, column names
+     * and values plus a fixed allowance for the Thrift structures and
+     * timestamps around them. <code>values</code> may be <code>null</code>
+     * (deletions), in which case only the names are counted.
+     */
+    private static <C> long estimateRowBytes(ByteBuffer rawKey, Collection<C> names, Serializer<C> nameSerializer,
+            Collection<ByteBuffer> values) {
+        long bytes = ROW_OVERHEAD_BYTES + rawKey.remaining();
+        for (C name : names) {
+            bytes += COLUMN_OVERHEAD_BYTES + nameSerializer.toByteBuffer(name).remaining();
+        }
+        if (values != null) {
+            for (ByteBuffer value : values) {
+                bytes += value == null ? 0 : value.remaining();
             }
-        } else {
-            for (Map.Entry<C, V> entry : columns.entrySet()) {
-                mutation.withRow(columnFamily, rowKey).putColumn(entry.getKey(), entry.getValue(),
-                        serializerFor(tupleMapper.getColumnValueClass()), null);
+        }
+        return bytes;
+    }
+
+    /**
+     * Groups the mutations of a write into batches. Batches are per keyspace;
+     * with <code>cassandra.batch.token_aware</code> enabled they are further
+     * split by host: each row goes to a batch pinned to a live replica of the
+     * row, so the coordinator does not have to forward it. Rows join a batch
+     * that is already pinned to one of their replicas where possible. With <code>cassandra.batch.max_bytes</code> set, a new batch is
+     * started whenever the next row would take the current one over budget.
+     */
+    private class BatchBuilder {
+        private final Map<List<Object>, PendingBatch> open = new HashMap<List<Object>, PendingBatch>();
+        private final List<PendingBatch> batches = new ArrayList<PendingBatch>();
+
+        PendingBatch batchFor(String keyspace, ByteBuffer rawKey, long rowBytes) {
+            List<String> replicas = tokenAware ? replicasFor(keyspace, rawKey) : null;
+            PendingBatch batch = null;
+            if (replicas != null) {
+                // prefer a batch already pinned to one of the row's replicas,
+                // so that a batch is split once per host rather than once per
+                // token range (of which there are hundreds with vnodes)
+                for (String replica : replicas) {
+                    batch = withRoom(this.open.get(Arrays.<Object> asList(keyspace, replica)), rowBytes);
+                    if (batch != null) {
+                        break;
+                    }
+                }
+            } else {
+                batch = withRoom(this.open.get(Arrays.<Object> asList(keyspace, null)), rowBytes);
             }
+            if (batch == null) {
+                Host replica = replicas != null ? liveReplica(keyspace, replicas) : null;
+                List<Object> batchKey = Arrays.<Object> asList(keyspace, replica != null ? replica.getIpAddress()
+                        : null);
+                if (replicas != null && replica == null) {
+                    // no live replica, any coordinator will do
+                    batch = withRoom(this.open.get(batchKey), rowBytes);
+                }
+                if (batch == null) {
+                    MutationBatch mutation = getKeyspace(keyspace).prepareMutationBatch();
+                    if (replica != null) {
+                        mutation.pinToHost(replica);
+                    }
+                    batch = new PendingBatch(keyspace, mutation);
+                    this.open.put(batchKey, batch);
+                    this.batches.add(batch);
+                }
+            }
+            if (maxBatchBytes > 0 && rowBytes > maxBatchBytes) {
+                LOG.warn("Row of ~" + rowBytes + " bytes for keyspace [" + keyspace
+                        + "] exceeds the batch budget of " + maxBatchBytes + " bytes.");
+                batchSizes.oversizedRow();
+            }
+            batch.bytes += rowBytes;
+            return batch;
+        }
+
+        private PendingBatch withRoom(PendingBatch batch, long rowBytes) {
+            if (batch != null && maxBatchBytes > 0 && batch.bytes + rowBytes > maxBatchBytes) {
+                return null;
+            }
+            return batch;
+        }
+
+        List<PendingBatch> build() {
+            for (PendingBatch batch : this.batches) {
+                batchSizes.batchBuilt(batch.bytes);
+            }
+            return this.batches;
         }
     }
 
-    @SuppressWarnings("unchecked")
-	public void incrementCountColumn(Tuple input, TupleCounterMapper<K,C> tupleMapper) throws Exception {
-        String columnFamilyName = tupleMapper.mapToColumnFamily(input);
-        String keyspace = tupleMapper.mapToKeyspace(input);
-        K rowKey = tupleMapper.mapToRowKey(input);
-        long incrementAmount = tupleMapper.mapToIncrementAmount(input);
-        MutationBatch mutation = getKeyspace(keyspace).prepareMutationBatch();
-        ColumnFamily<K, C> columnFamily = new ColumnFamily<K, C>(columnFamilyName,
-                (Serializer<K>) serializerFor(tupleMapper.getKeyClass()),
-                (Serializer<C>) serializerFor(tupleMapper.getColumnNameClass()));
-        for (C columnName : tupleMapper.mapToColumnList(input)) {
-            mutation.withRow(columnFamily, rowKey).incrementCounterColumn(columnName, incrementAmount);
+    /**
+     * The writes of one batch, grouped per row, keeping only the last value
+     * or delete seen for each column. Every mutation of a batch carries the
+     * same timestamp, so without this Cassandra would settle repeated writes
+     * to a column by comparing values rather than keeping the latest one.
+     */
+    private class CoalescedWrites {
+        private final Serializer<C> nameSerializer;
+        private final Map<List<Object>, CoalescedRow> rows = new LinkedHashMap<List<Object>, CoalescedRow>();
+
+        CoalescedWrites(Serializer<C> nameSerializer) {
+            this.nameSerializer = nameSerializer;
+        }
+
+        CoalescedRow rowFor(String keyspace, ColumnFamily<K, C> columnFamily, K rowKey, ByteBuffer rawKey) {
+            List<Object> rowId = Arrays.<Object> asList(keyspace, columnFamily.getName(), rawKey);
+            CoalescedRow row = this.rows.get(rowId);
+            if (row == null) {
+                row = new CoalescedRow(keyspace, columnFamily, rowKey, rawKey, this.nameSerializer);
+                this.rows.put(rowId, row);
+            }
+            return row;
+        }
+
+        List<PendingBatch> build(BatchBuilder batches) {
+            int writes = 0;
+            int cells = 0;
+            for (CoalescedRow row : this.rows.values()) {
+                long rowBytes = ROW_OVERHEAD_BYTES + row.rawKey.remaining();
+                for (Map.Entry<ByteBuffer, CoalescedCell<C>> entry : row.cells.entrySet()) {
+                    ByteBuffer value = entry.getValue().value;
+                    rowBytes += COLUMN_OVERHEAD_BYTES + entry.getKey().remaining()
+                            + (value == null ? 0 : value.remaining());
+                }
+                PendingBatch batch = batches.batchFor(row.keyspace, row.rawKey, rowBytes);
+                batch.inputs.addAll(row.inputs);
+                ColumnListMutation<C> mutation = batch.mutation.withRow(row.columnFamily, row.rowKey);
+                for (CoalescedCell<C> cell : row.cells.values()) {
+                    if (cell.delete) {
+                        mutation.deleteColumn(cell.name);
+                    } else {
+                        mutation.putColumn(cell.name, cell.value, ByteBufferSerializer.get(), null);
+                    }
+                }
+                writes += row.writes;
+                cells += row.cells.size();
+            }
+            LOG.debug("Coalesced [" + writes + "] column writes into [" + cells + "] column mutations.");
+            return batches.build();
         }
-        mutation.execute();
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * The surviving write for each column of one row, and the tuples that
+     * wrote to it.
+     */
+    private class CoalescedRow {
+        final String keyspace;
+        final ColumnFamily<K, C> columnFamily;
+        final K rowKey;
+        final ByteBuffer rawKey;
+        final Serializer<C> nameSerializer;
+        // keyed by serialized name, so that column classes without equals() still match
+        final Map<ByteBuffer, CoalescedCell<C>> cells = new LinkedHashMap<ByteBuffer, CoalescedCell<C>>();
+        final List<Object> inputs = new ArrayList<Object>();
+        int writes;
+
+        CoalescedRow(String keyspace, ColumnFamily<K, C> columnFamily, K rowKey, ByteBuffer rawKey,
+                Serializer<C> nameSerializer) {
+            this.keyspace = keyspace;
+            this.columnFamily = columnFamily;
+            this.rowKey = rowKey;
+            this.rawKey = rawKey;
+            this.nameSerializer = nameSerializer;
+        }
+
+        void put(Map<C, ByteBuffer> values) {
+            for (Map.Entry<C, ByteBuffer> entry : values.entrySet()) {
+                this.cells.put(this.nameSerializer.toByteBuffer(entry.getKey()),
+                        new CoalescedCell<C>(entry.getKey(), entry.getValue(), false));
+            }
+            this.writes += values.size();
+        }
+
+        void delete(Collection<C> names) {
+            for (C name : names) {
+                this.cells.put(this.nameSerializer.toByteBuffer(name), new CoalescedCell<C>(name, null, true));
+            }
+            this.writes += names.size();
+        }
+    }
+
+    private static class CoalescedCell<C> {
+        final C name;
+        final ByteBuffer value;
+        final boolean delete;
+
+        CoalescedCell(C name, ByteBuffer value, boolean delete) {
+            this.name = name;
+            this.value = value;
+            this.delete = delete;
+        }
+    }
+
+    /**
+     * @return the addresses of the replicas of <code>rawKey</code>, or
+     *         <code>null</code> while the ring is unknown
+     */
+    private List<String> replicasFor(String keyspace, ByteBuffer rawKey) {
+        TokenRing ring = tokenRing(keyspace);
+        int range = ring == null ? -1 : ring.rangeFor(rawKey);
+        return range < 0 ? null : ring.endpointsFor(range);
+    }
+
+    /**
+     * Returns the last ring described for <code>keyspace</code>, and has it
+     * described again in the background if it is missing or stale. Only one
+     * refresh per keyspace runs at a time, and writes never wait for it;
+     * until the first one is done, batches are not split.
+     */
+    private TokenRing tokenRing(final String keyspace) {
+        TokenRing ring = this.tokenRings.get(keyspace);
+        if ((ring == null || ring.isOlderThan(RING_REFRESH_MILLIS)) && this.ringRefreshes.add(keyspace)) {
+            try {
+                this.ringRefresher.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            tokenRings.put(keyspace, TokenRing.describe(keyspace, getKeyspace(keyspace)));
+                        } finally {
+                            ringRefreshes.remove(keyspace);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // stopped
+                this.ringRefreshes.remove(keyspace);
+            }
+        }
+        return ring;
+    }
+
+    /**
+     * @return a host from <code>endpoints</code> that the connection pool
+     *         currently has a healthy pool for, or <code>null</code>
+     */
+    private Host liveReplica(String keyspace, List<String> endpoints) {
+        List<Host> live = new ArrayList<Host>(endpoints.size());
+        ConnectionPool<?> connectionPool = this.clusterContext != null ? this.clusterContext.getConnectionPool()
+                : getAstyanaxContext(keyspace).getConnectionPool();
+        for (HostConnectionPool<?> pool : connectionPool.getPools()) {
+            if (!pool.isReconnecting() && endpoints.contains(pool.getHost().getIpAddress())) {
+                live.add(pool.getHost());
+            }
+        }
+        return live.isEmpty() ? null : live.get(this.random.nextInt(live.size()));
+    }
+
+    /**
+     * Executes the batches and waits for all of them. A single batch is
+     * executed on the calling thread; several batches (e.g. one per
+     * keyspace) are sent concurrently on the Astyanax async executor, which
+     * is bounded and can be replaced through the
+     * <code>astyanax.configuration</code> setting.
+     * 
+     * @throws PartialWriteException
+     *             if some, but not necessarily all, of several batches
+     *             failed
+     */
+    private static void execute(List<PendingBatch> batches) throws Exception {
+        if (batches.size() == 1) {
+            batches.get(0).mutation.execute();
+            return;
+        }
+        try {
+            executeAsync(batches).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Sends every batch without waiting. The returned future completes once
+     * all batches are done; if any of them failed it fails with the error of
+     * a lone batch, or with a {@link PartialWriteException} naming the failed
+     * keyspaces and tuples when there were several.
+     */
+    private static ListenableFuture<List<OperationResult<Void>>> executeAsync(final List<PendingBatch> batches) {
+        final SettableFuture<List<OperationResult<Void>>> result = SettableFuture.create();
+        if (batches.isEmpty()) {
+            result.set(Collections.<OperationResult<Void>> emptyList());
+            return result;
+        }
+        final List<OperationResult<Void>> results = Collections
+                .synchronizedList(new ArrayList<OperationResult<Void>>());
+        final Map<PendingBatch, Throwable> failures = new ConcurrentHashMap<PendingBatch, Throwable>();
+        final AtomicInteger remaining = new AtomicInteger(batches.size());
+        for (final PendingBatch batch : batches) {
+            ListenableFuture<OperationResult<Void>> future;
+            try {
+                future = batch.mutation.executeAsync();
+            } catch (ConnectionException e) {
+                future = Futures.immediateFailedFuture(e);
+            }
+            Futures.addCallback(future, new FutureCallback<OperationResult<Void>>() {
+                @Override
+                public void onSuccess(OperationResult<Void> operationResult) {
+                    results.add(operationResult);
+                    complete();
+                }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    LOG.warn("Mutation batch for keyspace [" + batch.keyspace + "] failed.", t);
+                    failures.put(batch, t);
+                    complete();
+                }
+
+                private void complete() {
+                    if (remaining.decrementAndGet() > 0) {
+                        return;
+                    }
+                    if (failures.isEmpty()) {
+                        result.set(results);
+                    } else if (batches.size() == 1) {
+                        result.setException(failures.values().iterator().next());
+                    } else {
+                        result.setException(partialWriteException(batches, failures));
+                    }
+                }
+            });
+        }
+        return result;
+    }
+
+    private static PartialWriteException partialWriteException(List<PendingBatch> batches,
+            Map<PendingBatch, Throwable> failures) {
+        Map<String, Throwable> byKeyspace = new LinkedHashMap<String, Throwable>();
+        List<Object> failedInputs = new ArrayList<Object>();
+        // walk the batches in order so that failed inputs keep their order
+        for (PendingBatch batch : batches) {
+            Throwable t = failures.get(batch);
+            if (t != null) {
+                if (!byKeyspace.containsKey(batch.keyspace)) {
+                    byKeyspace.put(batch.keyspace, t);
+                }
+                failedInputs.addAll(batch.inputs);
+            }
+        }
+        return new PartialWriteException(byKeyspace, failedInputs);
+    }
+
+    /**
+     * A mutation batch together with the tuples it was built from.
+     */
+    private static class PendingBatch {
+        final String keyspace;
+        final MutationBatch mutation;
+        final List<Object> inputs = new ArrayList<Object>();
+        long bytes;
+
+        PendingBatch(String keyspace, MutationBatch mutation) {
+            this.keyspace = keyspace;
+            this.mutation = mutation;
+        }
+    }
+
+	public void incrementCountColumn(Tuple input, TupleCounterMapper<K,C> tupleMapper) throws Exception {
+        this.incrementCountColumns(Collections.singletonList(input), tupleMapper);
+    }
+
 	public void incrementCountColumns(List<Tuple> inputs, TupleCounterMapper<K,C> tupleMapper) throws Exception {    
-        Map<String, MutationBatch> mutations = new HashMap<String, MutationBatch>();
+        execute(prepareCounterMutations(inputs, tupleMapper));
+    }
+
+    /**
+     * Asynchronous variant of {@link #incrementCountColumn(Tuple, TupleCounterMapper)}.
+     */
+    public ListenableFuture<List<OperationResult<Void>>> incrementCountColumnAsync(Tuple input,
+            TupleCounterMapper<K, C> tupleMapper) throws Exception {
+        return this.incrementCountColumnsAsync(Collections.singletonList(input), tupleMapper);
+    }
+
+    /**
+     * Asynchronous variant of
+     * {@link #incrementCountColumns(List, TupleCounterMapper)}; see
+     * {@link #writeTuplesAsync(List, TridentTupleMapper)}.
+     */
+    public ListenableFuture<List<OperationResult<Void>>> incrementCountColumnsAsync(List<Tuple> inputs,
+            TupleCounterMapper<K, C> tupleMapper) throws Exception {
+        return executeAsync(prepareCounterMutations(inputs, tupleMapper));
+    }
+
+    /**
+     * Builds the counter mutations for <code>inputs</code>. Increments are
+     * summed per counter column first, so each distinct counter is written
+     * once however many tuples touch it.
+     */
+    private List<PendingBatch> prepareCounterMutations(List<Tuple> inputs,
+            TupleCounterMapper<K, C> tupleMapper) {
+        Serializer<K> keySerializer = serializerFor(tupleMapper.getKeyClass());
+        Serializer<C> nameSerializer = serializerFor(tupleMapper.getColumnNameClass());
+        Map<List<Object>, CounterRow<K, C>> rows = new LinkedHashMap<List<Object>, CounterRow<K, C>>();
+        int increments = 0;
         for (Tuple input : inputs) {
-            String keyspace = tupleMapper.mapToKeyspace(input);            
-            MutationBatch mutation = mutations.get(keyspace);
-            if(mutation == null) {
-                mutation = getKeyspace(keyspace).prepareMutationBatch();
-                mutations.put(keyspace, mutation);
-            }
+            String keyspace = tupleMapper.mapToKeyspace(input);
             String columnFamilyName = tupleMapper.mapToColumnFamily(input);
             K rowKey = tupleMapper.mapToRowKey(input);
+            ByteBuffer rawKey = keySerializer.toByteBuffer(rowKey);
+            List<Object> rowId = Arrays.<Object> asList(keyspace, columnFamilyName, rawKey);
+            CounterRow<K, C> row = rows.get(rowId);
+            if (row == null) {
+                row = new CounterRow<K, C>(keyspace, columnFamily(columnFamilyName, tupleMapper.getKeyClass(),
+                        tupleMapper.getColumnNameClass()), rowKey, rawKey);
+                rows.put(rowId, row);
+            }
+            row.inputs.add(input);
             long incrementAmount = tupleMapper.mapToIncrementAmount(input);
-            ColumnFamily<K, C> columnFamily = new ColumnFamily<K, C>(columnFamilyName,
-                    (Serializer<K>) serializerFor(tupleMapper.getKeyClass()),
-                    (Serializer<C>) serializerFor(tupleMapper.getColumnNameClass()));
             for (C columnName : tupleMapper.mapToColumnList(input)) {
-                mutation.withRow(columnFamily, rowKey).incrementCounterColumn(columnName, incrementAmount);
+                ByteBuffer rawName = nameSerializer.toByteBuffer(columnName);
+                CounterColumn<C> column = row.columns.get(rawName);
+                if (column == null) {
+                    column = new CounterColumn<C>(columnName);
+                    row.columns.put(rawName, column);
+                }
+                column.amount += incrementAmount;
+                increments++;
             }
         }
-        for(String key : mutations.keySet()) {
-            mutations.get(key).execute();
+
+        BatchBuilder batches = new BatchBuilder();
+        int counters = 0;
+        for (CounterRow<K, C> row : rows.values()) {
+            // counter deltas are 8 byte longs
+            long rowBytes = ROW_OVERHEAD_BYTES + row.rawKey.remaining();
+            List<CounterColumn<C>> changed = new ArrayList<CounterColumn<C>>(row.columns.size());
+            for (Map.Entry<ByteBuffer, CounterColumn<C>> column : row.columns.entrySet()) {
+                if (column.getValue().amount != 0) {
+                    changed.add(column.getValue());
+                    rowBytes += COLUMN_OVERHEAD_BYTES + column.getKey().remaining() + 8;
+                }
+            }
+            if (changed.isEmpty()) {
+                // the increments cancelled out; nothing to send, and its
+                // tuples are done along with the rest of the batch
+                continue;
+            }
+            PendingBatch batch = batches.batchFor(row.keyspace, row.rawKey, rowBytes);
+            batch.inputs.addAll(row.inputs);
+            ColumnListMutation<C> mutation = batch.mutation.withRow(row.columnFamily, row.rowKey);
+            for (CounterColumn<C> column : changed) {
+                mutation.incrementCounterColumn(column.name, column.amount);
+                counters++;
+            }
         }
+        LOG.debug("Summed [" + increments + "] counter increments into [" + counters + "] counter mutations.");
+        return batches.build();
     }
 
-    @SuppressWarnings({ "rawtypes" })
-    private ByteBufferRange getRangeBuilder(C start, C end, Equality equality, Serializer<C> serializer)
-            throws IllegalAccessException, IntrospectionException, InvocationTargetException {
+    /**
+     * The summed increments for one counter row, and the tuples they came
+     * from.
+     */
+    private static class CounterRow<K, C> {
+        final String keyspace;
+        final ColumnFamily<K, C> columnFamily;
+        final K rowKey;
+        final ByteBuffer rawKey;
+        // keyed by serialized name, so that column classes without equals() still match
+        final Map<ByteBuffer, CounterColumn<C>> columns = new LinkedHashMap<ByteBuffer, CounterColumn<C>>();
+        final List<Object> inputs = new ArrayList<Object>();
+
+        CounterRow(String keyspace, ColumnFamily<K, C> columnFamily, K rowKey, ByteBuffer rawKey) {
+            this.keyspace = keyspace;
+            this.columnFamily = columnFamily;
+            this.rowKey = rowKey;
+            this.rawKey = rawKey;
+        }
+    }
+
+    /**
+     * A counter column and its summed increment, kept as a primitive so that
+     * summing does not box.
+     */
+    private static class CounterColumn<C> {
+        final C name;
+        long amount;
+
+        CounterColumn(C name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * Builds the column range for a range lookup. Composite ranges carry the
+     * bounds' equality to Cassandra. Slice ranges on plain columns are always
+     * inclusive, so an exclusive bound is fetched and dropped client side; the
+     * fetch limit is raised to make up for it.
+     * 
+     * @param limit
+     *            maximum number of columns to return, or 0 for no limit
+     * @param reversed
+     *            read from <code>end</code> down to <code>start</code>
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private ColumnRange columnRange(C start, C end, Equality equality, Serializer<C> serializer, int limit,
+            boolean reversed) throws IllegalAccessException, IntrospectionException, InvocationTargetException {
+        boolean excludeStart = equality == Equality.GREATER_THAN;
+        boolean excludeEnd = equality == Equality.LESS_THAN;
         if (!(serializer instanceof AnnotatedCompositeSerializer)) {
-            return new RangeBuilder().setStart(start, serializerFor(start.getClass()))
-                    .setEnd(end, serializerFor(end.getClass())).build();
+            Serializer boundSerializer = serializerFor(start.getClass());
+            Set<ByteBuffer> excluded = new HashSet<ByteBuffer>();
+            if (excludeStart) {
+                excluded.add(boundSerializer.toByteBuffer(start));
+            }
+            if (excludeEnd) {
+                excluded.add(boundSerializer.toByteBuffer(end));
+            }
+            RangeBuilder rangeBuilder = new RangeBuilder();
+            if (reversed) {
+                rangeBuilder.setStart(end, boundSerializer).setEnd(start, boundSerializer).setReversed(true);
+            } else {
+                rangeBuilder.setStart(start, boundSerializer).setEnd(end, boundSerializer);
+            }
+            if (limit > 0) {
+                rangeBuilder.setLimit(limit + excluded.size());
+            }
+            return new ColumnRange(rangeBuilder.build(), excluded, limit);
         } else {
             AnnotatedCompositeSerializer compositeSerializer = (AnnotatedCompositeSerializer) serializer;
             CompositeRangeBuilder rangeBuilder = compositeSerializer.buildRange();
-            List<ComponentField> componentFields = componentFieldsForClass(start.getClass());
-            List<ComponentField> nonNullFields = new ArrayList<ComponentField>();
+            if (limit > 0) {
+                rangeBuilder.limit(limit);
+            }
+            List<ComponentField> componentFields = componentFieldsFor(start.getClass());
+            List<Object> starts = new ArrayList<Object>(componentFields.size());
+            List<Object> ends = new ArrayList<Object>(componentFields.size());
             for (ComponentField field : componentFields) {
-                if ((field.getValue(start) != null) && field.getValue(end) != null) {
-                    nonNullFields.add(field);
+                Object objStart = field.getValue(start);
+                Object objEnd = field.getValue(end);
+                if (objStart != null && objEnd != null) {
+                    starts.add(objStart);
+                    ends.add(objEnd);
                 }
             }
 
-            for (int i = 0; i < nonNullFields.size(); i++) {
-                Object objStart = nonNullFields.get(i).getValue(start);
-                Object objEnd = nonNullFields.get(i).getValue(end);
-                if (i + 1 != nonNullFields.size()) {
+            for (int i = 0; i < starts.size(); i++) {
+                Object objStart = starts.get(i);
+                Object objEnd = ends.get(i);
+                if (i + 1 != starts.size()) {
                     rangeBuilder.withPrefix(objStart);
                     LOG.debug("withPrefix(" + objStart + ")");
                 } else {
-                    rangeBuilder.greaterThanEquals(objStart);
-                    LOG.debug("greaterThanEquals(" + objStart + ")");
-                    rangeBuilder.lessThanEquals(objEnd);
-                    LOG.debug("lessThanEquals(" + objEnd + ")");
+                    if (excludeStart) {
+                        rangeBuilder.greaterThan(objStart);
+                        LOG.debug("greaterThan(" + objStart + ")");
+                    } else {
+                        rangeBuilder.greaterThanEquals(objStart);
+                        LOG.debug("greaterThanEquals(" + objStart + ")");
+                    }
+                    if (excludeEnd) {
+                        rangeBuilder.lessThan(objEnd);
+                        LOG.debug("lessThan(" + objEnd + ")");
+                    } else {
+                        rangeBuilder.lessThanEquals(objEnd);
+                        LOG.debug("lessThanEquals(" + objEnd + ")");
+                    }
                 }
             }
-            return rangeBuilder;
+            if (reversed) {
+                // swaps the start and end the bounds were written to
+                rangeBuilder.reverse();
+            }
+            return new ColumnRange(rangeBuilder, limit);
+        }
+    }
+
+    /**
+     * A column range as sent to Cassandra, along with the bound columns that
+     * have to be dropped from the result and the number of columns wanted.
+     */
+    private static class ColumnRange {
+        final ByteBufferRange range;
+        final Set<ByteBuffer> excluded;
+        final int limit;
+
+        ColumnRange(ByteBufferRange range, int limit) {
+            this(range, null, limit);
+        }
+
+        ColumnRange(ByteBufferRange range, Set<ByteBuffer> excluded, int limit) {
+            this.range = range;
+            this.excluded = excluded == null || excluded.isEmpty() ? null : excluded;
+            this.limit = limit;
         }
     }
 
@@ -525,6 +1820,8 @@ public class AstyanaxClient<K, C, V> {
         ComponentField(Method getter, int ordinal) {
             this.getter = getter;
             this.ordinal = ordinal;
+            // skip the access check on every call; the getter is public anyway
+            this.getter.setAccessible(true);
         }
 
         Object getValue(Object obj) throws IllegalAccessException, InvocationTargetException {
@@ -537,6 +1834,19 @@ public class AstyanaxClient<K, C, V> {
         }
     }
 
+    /**
+     * Returns the <code>@Component</code> accessors of <code>c</code> in
+     * ordinal order. The introspection is done once per class.
+     */
+    private static List<ComponentField> componentFieldsFor(Class<?> c) throws IntrospectionException {
+        List<ComponentField> fields = COMPONENT_FIELDS.get(c);
+        if (fields == null) {
+            fields = Collections.unmodifiableList(componentFieldsForClass(c));
+            COMPONENT_FIELDS.put(c, fields);
+        }
+        return fields;
+    }
+
     private static List<ComponentField> componentFieldsForClass(Class<?> c) throws IntrospectionException {
         ArrayList<ComponentField> retval = new ArrayList<ComponentField>();
 
@@ -577,8 +1887,49 @@ public class AstyanaxClient<K, C, V> {
         return result;
     }
 
-    @SuppressWarnings({ "rawtypes", "unchecked" })
+    /**
+     * Returns the column family named <code>name</code> with serializers for
+     * the given key and column name classes. Column families are immutable,
+     * so they are built once and shared across tuples and keyspaces.
+     */
+    private ColumnFamily<K, C> columnFamily(String name, Class<K> keyClass, Class<C> columnClass) {
+        Serializer<K> keySerializer = serializerFor(keyClass);
+        Serializer<C> columnSerializer = serializerFor(columnClass);
+        ColumnFamily<K, C> columnFamily = this.columnFamilies.get(name);
+        // serializers are cached per class, so identity tells whether the
+        // cached family was built for the same classes
+        if (columnFamily == null || columnFamily.getKeySerializer() != keySerializer
+                || columnFamily.getColumnSerializer() != columnSerializer) {
+            columnFamily = new ColumnFamily<K, C>(name, keySerializer, columnSerializer);
+            this.columnFamilies.put(name, columnFamily);
+        }
+        return columnFamily;
+    }
+
+    /**
+     * Returns the serializer for <code>valueClass</code>. Serializers are
+     * stateless, so each class is only resolved once.
+     */
+    @SuppressWarnings("unchecked")
     private static <T> Serializer<T> serializerFor(Class<?> valueClass) {
+        Serializer<?> serializer = SERIALIZERS.get(valueClass);
+        if (serializer == null) {
+            serializer = resolveSerializer(valueClass);
+            SERIALIZERS.put(valueClass, serializer);
+        }
+        return (Serializer<T>) serializer;
+    }
+
+    /**
+     * Serializes <code>value</code> with the serializer for its class, e.g.
+     * to hash values whose class does not implement <code>hashCode()</code>.
+     */
+    public static ByteBuffer toByteBuffer(Object value) {
+        return AstyanaxClient.<Object> serializerFor(value.getClass()).toByteBuffer(value);
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static Serializer<?> resolveSerializer(Class<?> valueClass) {
         Serializer serializer = null;
         if (valueClass.equals(UUID.class)) {
             serializer = UUIDSerializer.get();
@@ -623,31 +1974,55 @@ public class AstyanaxClient<K, C, V> {
     }
     
     public Keyspace getKeyspace() {
+        if (this.clusterContext != null) {
+            if (this.sharedPoolKeyspaces.size() == 1) {
+                return this.sharedPoolKeyspaces.values().iterator().next();
+            }
+            throw new IllegalArgumentException("if using no args get keyspace there can only be one keyspace, instead there was " + this.sharedPoolKeyspaces.size());
+        }
         return this.getAstyanaxContext().getEntity();
     }
     
     public Keyspace getKeyspace(String keyspace) {
+        if (this.clusterContext != null) {
+            Keyspace returnVal = this.sharedPoolKeyspaces.get(keyspace);
+            if (returnVal == null) {
+                returnVal = this.sharedPoolKeyspaces.get(keyspace.toLowerCase());
+                if (returnVal == null) {
+                    throw new IllegalArgumentException("Cannnot find client for keyspace: " + keyspace.toLowerCase());
+                }
+            }
+            return returnVal;
+        }
         return this.getAstyanaxContext(keyspace).getEntity();
     }
 
     public AstyanaxContext<Keyspace> getAstyanaxContext() {
         if(astyanaxContext.size() == 1) {
-            return astyanaxContext.values().iterator().next();
+            return started(astyanaxContext.values().iterator().next());
         } else {
             throw new IllegalArgumentException("if using no args get context there can only be one keyspace, instead there was " + astyanaxContext.size());
         }
     }
 
     public AstyanaxContext<Keyspace> getAstyanaxContext(String keyspace) {
+        AstyanaxContext<Keyspace> returnVal = contextsByName.get(keyspace);
+        if (returnVal != null) {
+            return returnVal;
+        }
         String keyspaceLower = keyspace.toLowerCase();
-        AstyanaxContext<Keyspace> returnVal = astyanaxContext.get(keyspaceLower);
+        returnVal = astyanaxContext.get(keyspaceLower);
         if(returnVal == null) {
             throw new IllegalArgumentException("Cannnot find client for keyspace: " + keyspaceLower);
         }
+        // only started contexts are cached, so cache hits skip the check
+        started(returnVal);
+        contextsByName.put(keyspace, returnVal);
         return returnVal;
     }
 
     public void addAstyanaxContext(String keyspace, AstyanaxContext<Keyspace> astyanaxContext) {
         this.astyanaxContext.put(keyspace.toLowerCase(), astyanaxContext);
+        this.contextsByName.clear();
     }
 }
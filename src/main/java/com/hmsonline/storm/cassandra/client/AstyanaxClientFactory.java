@@ -1,53 +1,171 @@
 package com.hmsonline.storm.cassandra.client;
 
+import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.base.Objects;
+import com.google.common.util.concurrent.SettableFuture;
+
 /**
  * @author jtyack
- * Factory ensures that one AstyanaxClient exists per configKey
+ * Factory ensures that one AstyanaxClient exists per configKey, shared by
+ * every bolt, function and state of the worker that uses that key
  *
  */
 public class AstyanaxClientFactory {
 	
     private static final Logger LOG = LoggerFactory.getLogger(AstyanaxClientFactory.class);
 	
-	@SuppressWarnings("rawtypes")
-	private static Map<String, AstyanaxClient> clients = new ConcurrentHashMap<String, AstyanaxClient>();
+	// guarded by the class lock
+	private static Map<String, SharedClient> clients = new HashMap<String, SharedClient>();
 
 	// factory clients cannot instantiate
 	private AstyanaxClientFactory(){
     }
 	
 	/**
+	 * Returns the shared client for <code>cassandraClusterId</code>, starting
+	 * it if needed, without counting a reference to it: the client is
+	 * stopped once every component that acquired it has released it, even
+	 * if the caller still uses it.
+	 * 
 	 * @param cassandraClusterId only one instance will be available per Cassandra Cluster identifer
 	 * @param conf the configuration for the given cassandraClusterId
 	 * @return AstyanaxClient that maps to a cassandraClusterId
+	 * @deprecated use {@link #acquire(String, Map)} and
+	 *             {@link #release(String, AstyanaxClient)}
 	 */
+	@Deprecated
 	@SuppressWarnings("rawtypes")
 	public static AstyanaxClient getInstance(String cassandraClusterId, Map conf) {
-		if (clients.containsKey(cassandraClusterId)) {
-			LOG.debug("Returning existing instance that maps to cassandra cluster " + cassandraClusterId);
-			return clients.get(cassandraClusterId);
+		return acquire(cassandraClusterId, conf, false);
+	}
+
+	/**
+	 * Returns the client for <code>cassandraClusterId</code>, starting it if
+	 * no other component of this worker holds it, and counts a reference to
+	 * it. Every call must be matched by a call to
+	 * {@link #release(String, AstyanaxClient)}; callers must not stop the
+	 * client themselves. Once every reference has been released the client
+	 * is stopped, and the next call starts a new one.
+	 * <p/>
+	 * The client is started outside the factory lock, so that starting it
+	 * does not hold up components acquiring clients for other cluster ids;
+	 * callers for the same id wait until it has started.
+	 * 
+	 * @param cassandraClusterId only one instance will be available per Cassandra Cluster identifer
+	 * @param conf the configuration for the given cassandraClusterId
+	 * @return AstyanaxClient that maps to a cassandraClusterId
+	 * @throws IllegalArgumentException if the client for
+	 *             <code>cassandraClusterId</code> was started with a
+	 *             different configuration
+	 */
+	@SuppressWarnings("rawtypes")
+	public static AstyanaxClient acquire(String cassandraClusterId, Map conf) {
+		return acquire(cassandraClusterId, conf, true);
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	private static AstyanaxClient acquire(String cassandraClusterId, Map conf, boolean counted) {
+		SharedClient shared;
+		boolean starting = false;
+		synchronized (AstyanaxClientFactory.class) {
+			shared = clients.get(cassandraClusterId);
+			if (shared != null && shared.client.isStopped()) {
+				// someone called stop() instead of release(), replace the dead client
+				LOG.warn("AstyanaxClient instance for cassandra cluster " + cassandraClusterId + " was stopped while in use, starting a new one");
+				clients.remove(cassandraClusterId);
+				shared = null;
+			}
+			if (shared == null) {
+				shared = new SharedClient(new AstyanaxClient(), conf);
+				clients.put(cassandraClusterId, shared);
+				starting = true;
+			} else if (!Objects.equal(shared.conf, conf)) {
+				// the id alone picks the client, so a second config would be silently ignored
+				throw new IllegalArgumentException("AstyanaxClient instance for cassandra cluster " + cassandraClusterId
+						+ " was started with config " + shared.conf + ", not " + conf);
+			} else {
+				LOG.debug("Returning existing instance that maps to cassandra cluster " + cassandraClusterId);
+			}
+			if (counted) {
+				shared.references++;
+			}
+		}
+		if (starting) {
+			LOG.debug("Creating new AstyanaxClient instance for cassandra cluster " + cassandraClusterId + " and starting with config " + conf);
+			try {
+				shared.client.start(conf);
+			} catch (RuntimeException e) {
+				synchronized (AstyanaxClientFactory.class) {
+					if (clients.get(cassandraClusterId) == shared) {
+						clients.remove(cassandraClusterId);
+					}
+				}
+				shared.started.setException(e);
+				throw e;
+			}
+			shared.started.set(null);
 		} else {
-			return createClient(cassandraClusterId, conf);
+			awaitStarted(cassandraClusterId, shared);
 		}
+		return shared.client;
 	}
 
-	@SuppressWarnings({ "rawtypes", "unchecked" })
-	private synchronized static AstyanaxClient createClient(String cassandraClusterId, Map conf) {
-		// in case > 1 factory client with same cassandraClusterId arrive here
-		if (clients.containsKey(cassandraClusterId)) {
-			LOG.debug("Returning existing instance that maps to cassandra cluster " + cassandraClusterId);
-			return clients.get(cassandraClusterId);
+	private static void awaitStarted(String cassandraClusterId, SharedClient shared) {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					shared.started.get();
+					return;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					throw new IllegalStateException("AstyanaxClient instance for cassandra cluster " + cassandraClusterId + " failed to start", e.getCause());
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Drops a reference taken by {@link #acquire(String, Map)}. The client is
+	 * stopped once the last reference is gone.
+	 */
+	@SuppressWarnings("rawtypes")
+	public synchronized static void release(String cassandraClusterId, AstyanaxClient client) {
+		SharedClient shared = clients.get(cassandraClusterId);
+		if (shared == null || shared.client != client) {
+			LOG.warn("Ignoring release of a client that is not held for cassandra cluster " + cassandraClusterId);
+			return;
+		}
+		if (--shared.references == 0) {
+			LOG.debug("Stopping AstyanaxClient instance for cassandra cluster " + cassandraClusterId);
+			clients.remove(cassandraClusterId);
+			client.stop();
+		}
+	}
+
+	@SuppressWarnings("rawtypes")
+	private static class SharedClient {
+		final AstyanaxClient client;
+		// the config the client was started with
+		final Map conf;
+		// completes once client.start() has returned
+		final SettableFuture<Void> started = SettableFuture.create();
+		int references;
+
+		SharedClient(AstyanaxClient client, Map conf) {
+			this.client = client;
+			this.conf = conf;
 		}
-		LOG.debug("Creating new AstyanaxClient instance for cassandra cluster " + cassandraClusterId + " and starting with config " + conf);
-		AstyanaxClient client = new AstyanaxClient();
-		client.start(conf);
-		clients.put(cassandraClusterId, client);
-		return client;
 	}
 }
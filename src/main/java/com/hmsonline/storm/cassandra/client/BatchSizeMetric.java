@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hmsonline.storm.cassandra.client;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import backtype.storm.metric.api.IMetric;
+
+/**
+ * Storm metric reporting the estimated size of the mutation batches sent by
+ * a client: the number of batches, their mean and maximum size in bytes, and
+ * how many rows were larger than the batch byte budget on their own.
+ */
+public class BatchSizeMetric implements IMetric {
+    private long batches;
+    private long totalBytes;
+    private long maxBytes;
+    private long oversizedRows;
+
+    synchronized void batchBuilt(long bytes) {
+        this.batches++;
+        this.totalBytes += bytes;
+        this.maxBytes = Math.max(this.maxBytes, bytes);
+    }
+
+    synchronized void oversizedRow() {
+        this.oversizedRows++;
+    }
+
+    @Override
+    public synchronized Object getValueAndReset() {
+        Map<String, Object> value = new HashMap<String, Object>();
+        value.put("batches", this.batches);
+        value.put("bytes.mean", this.batches == 0 ? 0 : this.totalBytes / this.batches);
+        value.put("bytes.max", this.maxBytes);
+        value.put("oversized_rows", this.oversizedRows);
+        this.batches = 0;
+        this.totalBytes = 0;
+        this.maxBytes = 0;
+        this.oversizedRows = 0;
+        return value;
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hmsonline.storm.cassandra.client;
+
+import java.util.Map;
+
+/**
+ * Receives the columns of a row one page at a time from the paged
+ * <code>AstyanaxClient.lookup</code> methods.
+ * 
+ * @param <C> - Cassandra column name (column key) type
+ * @param <V> - Cassandra column value type
+ */
+public interface ColumnPageHandler<C, V> {
+
+    /**
+     * Called once per page, in column order. Pages are never empty, and the
+     * map is not reused after this method returns.
+     * 
+     * @param columns
+     * @throws Exception
+     *             to stop paging; the exception is rethrown to the caller of
+     *             the lookup
+     */
+    void onPage(Map<C, V> columns) throws Exception;
+}
@@ -0,0 +1,214 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hmsonline.storm.cassandra.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Append-only log of serialized mutation batches, kept in a memory-mapped
+ * file of fixed size. Batching bolts spill batches here while Cassandra is
+ * too slow to keep up, and replay them once it recovers.
+ * <p/>
+ * The file starts with a header holding the read and write positions, which
+ * is updated and forced to disk after every append and every replayed
+ * entry, so the log survives a worker restart. Once everything has been
+ * replayed both positions go back to the start of the file; when the end
+ * of the file is reached the unread entries are moved to the front.
+ * <p/>
+ * All methods are synchronized; the log is shared by a bolt's batch threads
+ * and its replay thread.
+ */
+public class SpillLog {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int MAGIC = 0x53504c31;
+    // magic, read position, write position
+    private static final int HEADER_BYTES = 12;
+
+    private final File file;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private int readPosition;
+    private int writePosition;
+
+    private SpillLog(File file, FileChannel channel, MappedByteBuffer buffer) {
+        this.file = file;
+        this.channel = channel;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Opens the log in <code>file</code>, creating it with room for
+     * <code>capacity</code> bytes if it does not exist yet. Entries left by
+     * a previous run are kept.
+     */
+    public static SpillLog open(File file, int capacity) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create spill directory [" + dir + "].");
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        FileChannel channel = raf.getChannel();
+        int size = (int) Math.max(HEADER_BYTES + 1, Math.max(capacity, raf.length()));
+        SpillLog log = new SpillLog(file, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        if (log.buffer.getInt(0) == MAGIC) {
+            log.readPosition = log.buffer.getInt(4);
+            log.writePosition = log.buffer.getInt(8);
+        } else {
+            log.readPosition = HEADER_BYTES;
+            log.writePosition = HEADER_BYTES;
+            log.buffer.putInt(0, MAGIC);
+            log.writeHeader();
+        }
+        return log;
+    }
+
+    /**
+     * Appends <code>entries</code> and forces them to disk. Either all of
+     * them are appended or none is.
+     *
+     * @return <code>false</code> if the log does not have room for them
+     */
+    synchronized boolean append(List<Entry> entries) {
+        int bytes = 0;
+        for (Entry entry : entries) {
+            bytes += entry.sizeInLog();
+        }
+        if (this.writePosition + bytes > this.buffer.capacity()) {
+            compact();
+            if (this.writePosition + bytes > this.buffer.capacity()) {
+                return false;
+            }
+        }
+        ByteBuffer out = this.buffer.duplicate();
+        out.position(this.writePosition);
+        for (Entry entry : entries) {
+            byte[] keyspace = entry.keyspace.getBytes(UTF8);
+            out.putInt(keyspace.length);
+            out.put(keyspace);
+            out.putInt(entry.mutation.remaining());
+            out.put(entry.mutation.duplicate());
+        }
+        // the entries must be on disk before the header points past them
+        this.buffer.force();
+        this.writePosition = out.position();
+        writeHeader();
+        return true;
+    }
+
+    /**
+     * @return the oldest entry that has not been replayed yet, or
+     *         <code>null</code> if there is none
+     */
+    synchronized Entry peek() {
+        if (this.readPosition == this.writePosition) {
+            return null;
+        }
+        ByteBuffer in = this.buffer.duplicate();
+        in.position(this.readPosition);
+        byte[] keyspace = new byte[in.getInt()];
+        in.get(keyspace);
+        byte[] mutation = new byte[in.getInt()];
+        in.get(mutation);
+        return new Entry(new String(keyspace, UTF8), ByteBuffer.wrap(mutation));
+    }
+
+    /**
+     * Removes the entry returned by the last {@link #peek()}, once it has
+     * been replayed.
+     */
+    synchronized void remove(Entry entry) {
+        this.readPosition += entry.sizeInLog();
+        if (this.readPosition == this.writePosition) {
+            this.readPosition = HEADER_BYTES;
+            this.writePosition = HEADER_BYTES;
+        }
+        writeHeader();
+    }
+
+    public synchronized boolean isEmpty() {
+        return this.readPosition == this.writePosition;
+    }
+
+    /**
+     * @return the number of bytes waiting to be replayed
+     */
+    public synchronized int size() {
+        return this.writePosition - this.readPosition;
+    }
+
+    public File getFile() {
+        return this.file;
+    }
+
+    public synchronized void close() throws IOException {
+        this.buffer.force();
+        this.channel.close();
+    }
+
+    private void compact() {
+        int unreadBytes = this.writePosition - this.readPosition;
+        // only move the unread entries if they do not overlap their new
+        // place, so that a crash half way leaves the old ones intact
+        if (this.readPosition - HEADER_BYTES < unreadBytes) {
+            return;
+        }
+        byte[] unread = new byte[unreadBytes];
+        ByteBuffer in = this.buffer.duplicate();
+        in.position(this.readPosition);
+        in.get(unread);
+        ByteBuffer out = this.buffer.duplicate();
+        out.position(HEADER_BYTES);
+        out.put(unread);
+        this.buffer.force();
+        this.writePosition = out.position();
+        this.readPosition = HEADER_BYTES;
+        writeHeader();
+    }
+
+    private void writeHeader() {
+        this.buffer.putInt(4, this.readPosition);
+        this.buffer.putInt(8, this.writePosition);
+        this.buffer.force();
+    }
+
+    /**
+     * A serialized mutation batch and the keyspace it is for.
+     */
+    static class Entry {
+        final String keyspace;
+        final ByteBuffer mutation;
+        private final int sizeInLog;
+
+        Entry(String keyspace, ByteBuffer mutation) {
+            this.keyspace = keyspace;
+            this.mutation = mutation;
+            this.sizeInLog = 8 + keyspace.getBytes(UTF8).length + mutation.remaining();
+        }
+
+        int sizeInLog() {
+            return this.sizeInLog;
+        }
+    }
+}
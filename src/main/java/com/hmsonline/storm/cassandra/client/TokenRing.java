@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hmsonline.storm.cassandra.client;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.netflix.astyanax.Keyspace;
+import com.netflix.astyanax.connectionpool.TokenRange;
+import com.netflix.astyanax.partitioner.Partitioner;
+
+/**
+ * Snapshot of a keyspace's token ring, as reported by
+ * <code>describe_ring</code>. Used to split mutation batches so that each
+ * sub-batch can be sent straight to a replica of all of its rows.
+ * <p/>
+ * Only partitioners with numeric tokens (Random, Murmur3) are supported;
+ * for any other partitioner the ring is empty and no splitting happens.
+ */
+class TokenRing {
+    private static final Logger LOG = LoggerFactory.getLogger(TokenRing.class);
+
+    private final Partitioner partitioner;
+    private final BigInteger[] endTokens;
+    private final List<List<String>> endpoints;
+    private final long describedAt;
+
+    private TokenRing(Partitioner partitioner, BigInteger[] endTokens, List<List<String>> endpoints) {
+        this.partitioner = partitioner;
+        this.endTokens = endTokens;
+        this.endpoints = endpoints;
+        this.describedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Reads the ring for <code>keyspace</code>. Never throws; if the ring
+     * cannot be described an empty ring is returned, which disables
+     * splitting until the next refresh.
+     */
+    static TokenRing describe(String keyspaceName, Keyspace keyspace) {
+        try {
+            Partitioner partitioner = keyspace.getPartitioner();
+            List<TokenRange> ranges = new ArrayList<TokenRange>(keyspace.describeRing());
+            Collections.sort(ranges, new Comparator<TokenRange>() {
+                @Override
+                public int compare(TokenRange a, TokenRange b) {
+                    return new BigInteger(a.getEndToken()).compareTo(new BigInteger(b.getEndToken()));
+                }
+            });
+            BigInteger[] endTokens = new BigInteger[ranges.size()];
+            List<List<String>> endpoints = new ArrayList<List<String>>(ranges.size());
+            for (int i = 0; i < ranges.size(); i++) {
+                endTokens[i] = new BigInteger(ranges.get(i).getEndToken());
+                endpoints.add(ranges.get(i).getEndpoints());
+            }
+            LOG.debug("Described ring for keyspace [" + keyspaceName + "]: " + ranges.size() + " token ranges.");
+            return new TokenRing(partitioner, endTokens, endpoints);
+        } catch (Exception e) {
+            LOG.warn("Unable to describe ring for keyspace [" + keyspaceName
+                    + "], mutation batches will not be split by replica.", e);
+            return new TokenRing(null, new BigInteger[0], Collections.<List<String>> emptyList());
+        }
+    }
+
+    /**
+     * @return the index of the token range that owns <code>rowKey</code>, or
+     *         -1 if the ring is empty
+     */
+    int rangeFor(ByteBuffer rowKey) {
+        if (this.endTokens.length == 0) {
+            return -1;
+        }
+        BigInteger token = new BigInteger(this.partitioner.getTokenForKey(rowKey.duplicate()));
+        // ranges are (start, end], so the owner is the first range whose end
+        // is >= the token, wrapping around past the last one
+        int i = Arrays.binarySearch(this.endTokens, token);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return i == this.endTokens.length ? 0 : i;
+    }
+
+    /**
+     * @return the addresses of the replicas for the token range at
+     *         <code>index</code>
+     */
+    List<String> endpointsFor(int index) {
+        return this.endpoints.get(index);
+    }
+
+    boolean isOlderThan(long millis) {
+        return System.currentTimeMillis() - this.describedAt > millis;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hmsonline.storm.cassandra.exceptions;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Exception indicating that a write made up of several mutation batches
+ * (e.g. one per keyspace) only partially succeeded.
+ * <p/>
+ * The batches that are not listed here were written successfully, so
+ * callers can retry (or fail) only the tuples returned by
+ * <code>getFailedInputs()</code>.
+ *
+ */
+public class PartialWriteException extends StormCassandraException {
+
+    private static final long serialVersionUID = -3185305846375582183L;
+
+    private final transient Map<String, Throwable> failures;
+
+    private final transient List<?> failedInputs;
+
+    public PartialWriteException(Map<String, Throwable> failures, List<?> failedInputs) {
+        super("Batch write failed for keyspace(s) " + failures.keySet(), failures.values().iterator().next());
+        this.failures = Collections.unmodifiableMap(failures);
+        this.failedInputs = Collections.unmodifiableList(failedInputs);
+    }
+
+    /**
+     * @return the keyspaces that had at least one failed mutation batch
+     */
+    public Set<String> getFailedKeyspaces() {
+        return this.failures.keySet();
+    }
+
+    /**
+     * @return the first error seen for each failed keyspace
+     */
+    public Map<String, Throwable> getFailures() {
+        return this.failures;
+    }
+
+    /**
+     * @return the tuples whose mutations were part of a failed batch
+     */
+    public List<?> getFailedInputs() {
+        return this.failedInputs;
+    }
+}
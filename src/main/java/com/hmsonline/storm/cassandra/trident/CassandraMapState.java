@@ -48,27 +48,19 @@ import backtype.storm.tuple.Values;
 
 import com.google.common.base.Function;
 import com.google.common.collect.Collections2;
-import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 import com.hmsonline.storm.cassandra.StormCassandraConstants;
-import com.netflix.astyanax.AstyanaxConfiguration;
-import com.netflix.astyanax.AstyanaxContext;
+import com.hmsonline.storm.cassandra.client.AstyanaxClient;
+import com.hmsonline.storm.cassandra.client.AstyanaxClientFactory;
 import com.netflix.astyanax.Keyspace;
 import com.netflix.astyanax.MutationBatch;
-import com.netflix.astyanax.connectionpool.ConnectionPoolConfiguration;
-import com.netflix.astyanax.connectionpool.ConnectionPoolMonitor;
-import com.netflix.astyanax.connectionpool.NodeDiscoveryType;
 import com.netflix.astyanax.connectionpool.exceptions.ConnectionException;
-import com.netflix.astyanax.connectionpool.impl.ConnectionPoolConfigurationImpl;
-import com.netflix.astyanax.connectionpool.impl.CountingConnectionPoolMonitor;
-import com.netflix.astyanax.impl.AstyanaxConfigurationImpl;
 import com.netflix.astyanax.model.ColumnFamily;
 import com.netflix.astyanax.model.Composite;
 import com.netflix.astyanax.model.Rows;
 import com.netflix.astyanax.query.RowSliceQuery;
 import com.netflix.astyanax.serializers.CompositeSerializer;
 import com.netflix.astyanax.serializers.StringSerializer;
-import com.netflix.astyanax.thrift.ThriftFamilyFactory;
 
 public class CassandraMapState<T> implements IBackingMap<T> {
     @SuppressWarnings("unused")
@@ -77,22 +69,17 @@ public class CassandraMapState<T> implements IBackingMap<T> {
     @SuppressWarnings("rawtypes")
     private static final Map<StateType, Serializer> DEFAULT_SERIALZERS = Maps.newHashMap();
 
-    public static final String CASSANDRA_CLUSTER_NAME = "cassandra.clusterName";
-    public static final String ASTYANAX_CONFIGURATION = "astyanax.configuration";
-    public static final String ASTYANAX_CONNECTION_POOL_CONFIGURATION = "astyanax.connectionPoolConfiguration";
-    public static final String ASTYANAX_CONNECTION_POOL_MONITOR = "astyanax.connectioPoolMonitor";
-
-    private final Map<String, Object> DEFAULTS = new ImmutableMap.Builder<String, Object>()
-            .put(CASSANDRA_CLUSTER_NAME, "ClusterName")
-            .put(ASTYANAX_CONFIGURATION,
-                    new AstyanaxConfigurationImpl().setDiscoveryType(NodeDiscoveryType.RING_DESCRIBE))
-            .put(ASTYANAX_CONNECTION_POOL_CONFIGURATION,
-                    new ConnectionPoolConfigurationImpl("MyConnectionPool").setMaxConnsPerHost(1))
-            .put(ASTYANAX_CONNECTION_POOL_MONITOR, new CountingConnectionPoolMonitor()).build();
+    // the state reads these through the shared AstyanaxClient
+    public static final String CASSANDRA_CLUSTER_NAME = AstyanaxClient.CASSANDRA_CLUSTER_NAME;
+    public static final String ASTYANAX_CONFIGURATION = AstyanaxClient.ASTYANAX_CONFIGURATION;
+    public static final String ASTYANAX_CONNECTION_POOL_CONFIGURATION = AstyanaxClient.ASTYANAX_CONNECTION_POOL_CONFIGURATION;
+    public static final String ASTYANAX_CONNECTION_POOL_MONITOR = AstyanaxClient.ASTYANAX_CONNECTION_POOL_MONITOR;
 
     private Options<T> options;
     private Serializer<T> serializer;
     protected Keyspace keyspace;
+    @SuppressWarnings("rawtypes")
+    private AstyanaxClient client;
 
     static {
         DEFAULT_SERIALZERS.put(StateType.NON_TRANSACTIONAL, new JSONNonTransactionalSerializer());
@@ -100,33 +87,6 @@ public class CassandraMapState<T> implements IBackingMap<T> {
         DEFAULT_SERIALZERS.put(StateType.OPAQUE, new JSONOpaqueSerializer());
     }
 
-    protected AstyanaxContext<Keyspace> createContext(Map<String, Object> config) {
-        Map<String, Object> settings = Maps.newHashMap();
-        for (Map.Entry<String, Object> defaultEntry : DEFAULTS.entrySet()) {
-            if (config.containsKey(defaultEntry.getKey())) {
-                settings.put(defaultEntry.getKey(), config.get(defaultEntry.getKey()));
-            } else {
-                settings.put(defaultEntry.getKey(), defaultEntry.getValue());
-            }
-        }
-        // in the defaults case, we don't know the seed hosts until context
-        // creation time
-        if (settings.get(ASTYANAX_CONNECTION_POOL_CONFIGURATION) instanceof ConnectionPoolConfigurationImpl) {
-            ConnectionPoolConfigurationImpl cpConfig = (ConnectionPoolConfigurationImpl) settings
-                    .get(ASTYANAX_CONNECTION_POOL_CONFIGURATION);
-            cpConfig.setSeeds((String) config.get(StormCassandraConstants.CASSANDRA_HOST));
-        }
-
-        return new AstyanaxContext.Builder()
-                .forCluster((String) settings.get(CASSANDRA_CLUSTER_NAME))
-                .forKeyspace((String) config.get(StormCassandraConstants.CASSANDRA_STATE_KEYSPACE))
-                .withAstyanaxConfiguration((AstyanaxConfiguration) settings.get(ASTYANAX_CONFIGURATION))
-                .withConnectionPoolConfiguration(
-                        (ConnectionPoolConfiguration) settings.get(ASTYANAX_CONNECTION_POOL_CONFIGURATION))
-                .withConnectionPoolMonitor((ConnectionPoolMonitor) settings.get(ASTYANAX_CONNECTION_POOL_MONITOR))
-                .buildKeyspace(ThriftFamilyFactory.getInstance());
-    }
-
     @SuppressWarnings("serial")
     public static class Options<T> implements Serializable {
 
@@ -212,13 +172,33 @@ public class CassandraMapState<T> implements IBackingMap<T> {
 
     }
 
+    /**
+     * Uses the keyspace named by <code>cassandra.state.keyspace</code> from
+     * the client shared through <code>AstyanaxClientFactory</code>, so that
+     * every partition of the state (and any bolt or function using the same
+     * client config key) shares one connection pool. Size it with
+     * <code>cassandra.pool.max_conns_per_host</code>. The state holds a
+     * reference to the client until {@link #cleanup()}.
+     */
     @SuppressWarnings({ "rawtypes", "unchecked" })
     public CassandraMapState(Options<T> options, Map conf) {
         this.options = options;
         this.serializer = options.serializer;
-        AstyanaxContext<Keyspace> context = createContext((Map<String, Object>) conf.get(options.clientConfigKey));
-        context.start();
-        this.keyspace = context.getEntity();
+        Map<String, Object> config = (Map<String, Object>) conf.get(options.clientConfigKey);
+        this.client = AstyanaxClientFactory.acquire(options.clientConfigKey, config);
+        this.keyspace = this.client.getKeyspace((String) config.get(StormCassandraConstants.CASSANDRA_STATE_KEYSPACE));
+    }
+
+    /**
+     * Releases the shared client, stopping it once no other component of the
+     * worker holds it. Trident does not dispose of states, so this is only
+     * called by code that does.
+     */
+    public synchronized void cleanup() {
+        if (this.client != null) {
+            AstyanaxClientFactory.release(this.options.clientConfigKey, this.client);
+            this.client = null;
+        }
     }
 
     @Override
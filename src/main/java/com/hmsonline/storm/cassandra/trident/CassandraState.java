@@ -17,7 +17,10 @@
  */
 package com.hmsonline.storm.cassandra.trident;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -32,6 +35,7 @@ import backtype.storm.topology.FailedException;
 import com.hmsonline.storm.cassandra.bolt.mapper.Equality;
 import com.hmsonline.storm.cassandra.bolt.mapper.TridentTupleMapper;
 import com.hmsonline.storm.cassandra.client.AstyanaxClient;
+import com.hmsonline.storm.cassandra.client.AstyanaxClientFactory;
 import com.hmsonline.storm.cassandra.exceptions.ExceptionHandler;
 
 public class CassandraState implements State {
@@ -41,6 +45,8 @@ public class CassandraState implements State {
     private AstyanaxClient client = null;
     private int maxBatchSize = 0;
     private ExceptionHandler exceptionHandler;
+    // set when the client was acquired from AstyanaxClientFactory for this state
+    private String cassandraClusterId;
 
     public CassandraState(AstyanaxClient<?, ?, ?> client) {
         this(client, DEFAULT_MAX_BATCH_SIZE);
@@ -60,6 +66,30 @@ public class CassandraState implements State {
         this.exceptionHandler = exceptionHandler;
     }
 
+    /**
+     * A state holding a reference to <code>client</code>, acquired from
+     * <code>AstyanaxClientFactory</code> under <code>cassandraClusterId</code>,
+     * which {@link #cleanup()} releases.
+     */
+    CassandraState(AstyanaxClient<?, ?, ?> client, int maxBatchSize, ExceptionHandler exceptionHandler,
+            String cassandraClusterId) {
+        this(client, maxBatchSize, exceptionHandler);
+        this.cassandraClusterId = cassandraClusterId;
+    }
+
+    /**
+     * Releases the client if this state was made by
+     * <code>CassandraStateFactory</code>, stopping it once no other
+     * component of the worker holds it. Trident does not dispose of states,
+     * so this is only called by code that does.
+     */
+    public synchronized void cleanup() {
+        if (this.cassandraClusterId != null) {
+            AstyanaxClientFactory.release(this.cassandraClusterId, this.client);
+            this.cassandraClusterId = null;
+        }
+    }
+
     @Override
     public void beginCommit(Long txid) {
         LOG.debug("Begin Commit: {}", txid);
@@ -102,41 +132,119 @@ public class CassandraState implements State {
         }
     }
 
+    /**
+     * Looks up a batch of tuples. Tuples are grouped by query shape (whole
+     * row, column slice or column range) and each group is fetched with
+     * multi-row queries. Results are returned in the order of
+     * <code>tuples</code>.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
     public List<Map<?, ?>> batchRetrieve(List<TridentTuple> tuples, TridentTupleMapper tupleMapper) {
-        List<Map<?, ?>> retval = new ArrayList<Map<?, ?>>();
-        for (TridentTuple input : tuples) {
-
+        List<Map<?, ?>> retval = new ArrayList<Map<?, ?>>(tuples.size());
+        Map<QueryShape, List<Integer>> groups = new LinkedHashMap<QueryShape, List<Integer>>();
+        for (int i = 0; i < tuples.size(); i++) {
+            retval.add(null);
+            TridentTuple input = tuples.get(i);
             try {
-                Object start = tupleMapper.mapToStartKey(input);
-                Object end = tupleMapper.mapToEndKey(input);
-                List list = tupleMapper.mapToColumnsForLookup(input);
-
-                Map<?, ?> colMap = null;
-
                 // TODO break out different interfaces for different types of
                 // queries, then come back and fix this.
-                if (list != null) {
+                QueryShape shape = queryShape(tupleMapper, input);
+                List<Integer> indexes = groups.get(shape);
+                if (indexes == null) {
+                    indexes = new ArrayList<Integer>();
+                    groups.put(shape, indexes);
+                }
+                indexes.add(i);
+            } catch (Exception e) {
+                handleLookupException(e);
+            }
+        }
+
+        for (Map.Entry<QueryShape, List<Integer>> group : groups.entrySet()) {
+            QueryShape shape = group.getKey();
+            List<TridentTuple> inputs = new ArrayList<TridentTuple>(group.getValue().size());
+            for (Integer index : group.getValue()) {
+                inputs.add(tuples.get(index));
+            }
+            try {
+                List<Map<?, ?>> colMaps;
+                if (shape.slice != null) {
                     // slice query
-                    colMap = client.lookup(tupleMapper, input, list);
-                } else if (start != null && end != null) {
+                    colMaps = client.batchLookup(tupleMapper, inputs, shape.slice);
+                } else if (shape.start != null && shape.end != null) {
                     // range query
-                    colMap = client.lookup(tupleMapper, input, start, end, Equality.GREATER_THAN_EQUAL);
+                    colMaps = client.batchLookup(tupleMapper, inputs, shape.start, shape.end,
+                            Equality.GREATER_THAN_EQUAL);
                 } else {
                     // fetch by key
-                    colMap = client.lookup(tupleMapper, input);
+                    colMaps = client.batchLookup(tupleMapper, inputs);
                 }
-                retval.add(colMap);
-            } catch (Exception e) {
-                if (this.exceptionHandler != null) {
-                    this.exceptionHandler.onException(e, null);
-                } else {
-                    LOG.warn("Cassandra lookup failed. Triggering replay.", e);
-                    throw new FailedException(e);
+                for (int i = 0; i < colMaps.size(); i++) {
+                    retval.set(group.getValue().get(i), colMaps.get(i));
                 }
+            } catch (Exception e) {
+                handleLookupException(e);
             }
-
         }
         return retval;
     }
 
+    private void handleLookupException(Exception e) {
+        if (this.exceptionHandler != null) {
+            this.exceptionHandler.onException(e, null);
+        } else {
+            LOG.warn("Cassandra lookup failed. Triggering replay.", e);
+            throw new FailedException(e);
+        }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private QueryShape queryShape(TridentTupleMapper tupleMapper, TridentTuple input) {
+        List<?> slice = tupleMapper.mapToColumnsForLookup(input);
+        if (slice != null) {
+            return new QueryShape(slice, null, null, client.columnNameBytes(tupleMapper, slice));
+        }
+        Object start = tupleMapper.mapToStartKey(input);
+        Object end = tupleMapper.mapToEndKey(input);
+        if (start != null && end != null) {
+            return new QueryShape(null, start, end, client.columnNameBytes(tupleMapper, Arrays.asList(start, end)));
+        }
+        return new QueryShape(null, null, null, null);
+    }
+
+    /**
+     * The part of a lookup that tuples must share to be fetched by the same
+     * multi-row query. Shapes are compared by their serialized column names,
+     * since composite column classes need not implement
+     * <code>equals()</code>.
+     */
+    private static final class QueryShape {
+        private final List<?> slice;
+        private final Object start;
+        private final Object end;
+        private final List<ByteBuffer> rawNames;
+
+        QueryShape(List<?> slice, Object start, Object end, List<ByteBuffer> rawNames) {
+            this.slice = slice;
+            this.start = start;
+            this.end = end;
+            this.rawNames = rawNames;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof QueryShape)) {
+                return false;
+            }
+            QueryShape other = (QueryShape) obj;
+            return (this.slice == null) == (other.slice == null)
+                    && (this.rawNames == null ? other.rawNames == null : this.rawNames.equals(other.rawNames));
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(new Object[] { this.slice == null, this.rawNames });
+        }
+    }
+
 }
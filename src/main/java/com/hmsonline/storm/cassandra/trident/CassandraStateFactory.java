@@ -64,10 +64,12 @@ public class CassandraStateFactory implements StateFactory {
     @Override
     public State makeState(Map conf, IMetricsContext metrics, int partitionIndex, int numPartitions) {
         LOG.info("Making new CassandraState object for cluster " + cassandraClusterId + ": partition [" + partitionIndex + "] of [" + numPartitions + "]");
-        AstyanaxClient client = AstyanaxClientFactory.getInstance(cassandraClusterId, (Map)conf.get(cassandraClusterId));
+        AstyanaxClient client = AstyanaxClientFactory.acquire(cassandraClusterId, (Map)conf.get(cassandraClusterId));
         int batchMaxSize = Utils.getInt(Utils.get(conf, StormCassandraConstants.CASSANDRA_BATCH_MAX_SIZE,
                 CassandraState.DEFAULT_MAX_BATCH_SIZE));
-        return new CassandraState(client, batchMaxSize, this.exceptionHandler);
+        client.registerMetrics(metrics, Utils.getInt(Utils.get(conf, StormCassandraConstants.CASSANDRA_METRICS_BUCKET_SECS,
+                AstyanaxClient.DEFAULT_METRICS_BUCKET_SECS)));
+        return new CassandraState(client, batchMaxSize, this.exceptionHandler, cassandraClusterId);
     }
 
 }
@@ -36,6 +36,7 @@ import com.hmsonline.storm.cassandra.bolt.mapper.TridentColumnMapper;
 import com.hmsonline.storm.cassandra.bolt.mapper.TridentTupleMapper;
 import com.hmsonline.storm.cassandra.client.AstyanaxClient;
 import com.hmsonline.storm.cassandra.client.AstyanaxClientFactory;
+import com.hmsonline.storm.cassandra.client.ColumnPageHandler;
 
 public class TridentCassandraLookupFunction<K, C, V> implements Function {
     private static final long serialVersionUID = 12132012L;
@@ -52,6 +53,10 @@ public class TridentCassandraLookupFunction<K, C, V> implements Function {
     private int numberOfOutputFields = 1; // used to emit when the incoming
                                           // tuple doesn't pass the filter check
     private boolean emitEmptyOnFailure = false;
+    private int pageSize = 0;
+    private Equality equality = Equality.GREATER_THAN_EQUAL;
+    private int columnLimit = 0;
+    private boolean reversed = false;
 
     /**
      * @param cassandraClusterId Unique identifier for the Cassandra cluster
@@ -89,22 +94,72 @@ public class TridentCassandraLookupFunction<K, C, V> implements Function {
         this.emitEmptyOnFailure = emitEmptyOnFailure;
     }
 
+    /**
+     * Reads full-row and range lookups <code>pageSize</code> columns at a
+     * time and calls the column mapper once per page, which bounds the memory
+     * used by very wide rows. Slice lookups are not paged. Only use this with
+     * column mappers that treat each column independently. 0 (the default)
+     * reads whole rows.
+     * 
+     * @param pageSize
+     */
+    public void setPageSize(int pageSize) {
+        if (pageSize < 0) {
+            throw new IllegalArgumentException("Page size must not be negative, was " + pageSize);
+        }
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Sets how range lookups treat their bounds:
+     * <code>Equality.GREATER_THAN</code> excludes the start column,
+     * <code>Equality.LESS_THAN</code> the end column. Defaults to including
+     * both.
+     * 
+     * @param equality
+     */
+    public void setEquality(Equality equality) {
+        this.equality = equality;
+    }
+
+    /**
+     * Limits range lookups to the first <code>columnLimit</code> columns (the
+     * last ones if reversed). 0 (the default) returns the whole range. Not
+     * applied to paged lookups.
+     * 
+     * @param columnLimit
+     */
+    public void setColumnLimit(int columnLimit) {
+        this.columnLimit = columnLimit;
+    }
+
+    /**
+     * Reads ranges from the end key down to the start key.
+     * 
+     * @param reversed
+     */
+    public void setReversed(boolean reversed) {
+        this.reversed = reversed;
+    }
+
     @Override
     @SuppressWarnings({ "unchecked", "rawtypes" })
     public void prepare(Map stormConf, TridentOperationContext context) {
         Map<String, Object> config = (Map<String, Object>) stormConf.get(this.cassandraClusterId);
-        this.client = AstyanaxClientFactory.getInstance(cassandraClusterId, config);
+        this.client = AstyanaxClientFactory.acquire(cassandraClusterId, config);
+        this.client.warmUp(tupleMapper.getKeyClass(), tupleMapper.getColumnNameClass(),
+                tupleMapper.getColumnValueClass());
     }
 
     @Override
     public void cleanup() {
-        this.client.stop();
+        AstyanaxClientFactory.release(this.cassandraClusterId, this.client);
     }
 
     @Override
     // TODO come back and fix this once composite range queries are sorted out
     // we should not have to execute multiple queries.
-    public void execute(TridentTuple input, TridentCollector collector) {
+    public void execute(final TridentTuple input, final TridentCollector collector) {
         if (tupleFilter != null && !tupleFilter.isKeep(input)) {
             collector.emit(createEmptyValues());
             return;
@@ -117,23 +172,35 @@ public class TridentCassandraLookupFunction<K, C, V> implements Function {
             C end = tupleMapper.mapToEndKey(input);
             List<C> list = tupleMapper.mapToColumnsForLookup(input);
 
-            List<Values> valuesToEmit;
+            if (list == null && this.pageSize > 0) {
+                final K key = rowKey;
+                ColumnPageHandler<C, V> handler = new ColumnPageHandler<C, V>() {
+                    @Override
+                    public void onPage(Map<C, V> columns) {
+                        emit(columnsMapper.mapToValues(key, columns, input), collector);
+                    }
+                };
+                if (start != null && end != null) {
+                    client.lookup(tupleMapper, input, start, end, this.equality, this.reversed, this.pageSize,
+                            handler);
+                } else {
+                    client.lookup(tupleMapper, input, this.pageSize, handler);
+                }
+                return;
+            }
+
             Map<C, V> colMap = null;
             
             if (list != null){
                 colMap = client.lookup(tupleMapper, input, list);
             } else if (start != null && end != null){
-                colMap = client.lookup(tupleMapper, input, start, end, Equality.GREATER_THAN_EQUAL);
+                colMap = client.lookup(tupleMapper, input, start, end, this.equality, this.columnLimit,
+                        this.reversed);
             } else {
                     colMap = client.lookup(tupleMapper, input);                
             }
 
-            valuesToEmit = columnsMapper.mapToValues(rowKey, colMap, input);
-            if(valuesToEmit != null){
-                for (Values values : valuesToEmit) {
-                    collector.emit(values);
-                }
-            }
+            emit(columnsMapper.mapToValues(rowKey, colMap, input), collector);
 
         } catch (Exception e) {
             if (this.emitEmptyOnFailure) {
@@ -144,6 +211,14 @@ public class TridentCassandraLookupFunction<K, C, V> implements Function {
         }
     }
 
+    private void emit(List<Values> valuesToEmit, TridentCollector collector) {
+        if (valuesToEmit != null) {
+            for (Values values : valuesToEmit) {
+                collector.emit(values);
+            }
+        }
+    }
+
     private Values createEmptyValues() {
         ArrayList<Object> emptyValues = new ArrayList<Object>();
         for (int evc = 0; evc < this.numberOfOutputFields; evc++) {
@@ -28,7 +28,9 @@ import storm.trident.operation.TridentOperationContext;
 import storm.trident.tuple.TridentTuple;
 import backtype.storm.topology.FailedException;
 import backtype.storm.tuple.Values;
+import backtype.storm.utils.Utils;
 
+import com.hmsonline.storm.cassandra.StormCassandraConstants;
 import com.hmsonline.storm.cassandra.bolt.mapper.TridentTupleMapper;
 import com.hmsonline.storm.cassandra.client.AstyanaxClient;
 import com.hmsonline.storm.cassandra.client.AstyanaxClientFactory;
@@ -64,12 +66,15 @@ public class TridentCassandraWriteFunction<K, C, V> implements Function {
     @SuppressWarnings({ "rawtypes", "unchecked" })
     public void prepare(Map stormConf, TridentOperationContext context) {
         Map<String, Object> config = (Map<String, Object>) stormConf.get(this.cassandraClusterId);
-        client = AstyanaxClientFactory.getInstance(cassandraClusterId, config);
+        client = AstyanaxClientFactory.acquire(cassandraClusterId, config);
+        client.registerMetrics(context, Utils.getInt(Utils.get(stormConf, StormCassandraConstants.CASSANDRA_METRICS_BUCKET_SECS,
+                AstyanaxClient.DEFAULT_METRICS_BUCKET_SECS)));
+        client.warmUp(tupleMapper.getKeyClass(), tupleMapper.getColumnNameClass(), tupleMapper.getColumnValueClass());
     }
 
     @Override
     public void cleanup() {
-        this.client.stop();
+        AstyanaxClientFactory.release(this.cassandraClusterId, this.client);
     }
 
     @Override
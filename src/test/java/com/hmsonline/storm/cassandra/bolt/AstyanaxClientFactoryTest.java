@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hmsonline.storm.cassandra.bolt;
+
+import static com.hmsonline.storm.cassandra.bolt.AstyanaxUtil.createColumnFamily;
+import static com.hmsonline.storm.cassandra.bolt.AstyanaxUtil.newClusterContext;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import backtype.storm.Config;
+import backtype.storm.topology.TopologyBuilder;
+import backtype.storm.tuple.Fields;
+
+import com.hmsonline.storm.cassandra.StormCassandraConstants;
+import com.hmsonline.storm.cassandra.bolt.mapper.DefaultTupleMapper;
+import com.hmsonline.storm.cassandra.client.AstyanaxClient;
+import com.hmsonline.storm.cassandra.client.AstyanaxClientFactory;
+import com.hmsonline.storm.cassandra.trident.CassandraState;
+import com.hmsonline.storm.cassandra.trident.CassandraStateFactory;
+import com.hmsonline.storm.cassandra.trident.TridentCassandraWriteFunction;
+
+@SuppressWarnings("rawtypes")
+public class AstyanaxClientFactoryTest {
+    private static String KEYSPACE = AstyanaxClientFactoryTest.class.getSimpleName().toLowerCase();
+
+    @BeforeClass
+    public static void setupCassandra() throws Exception {
+        SingletonEmbeddedCassandra.getInstance();
+        createColumnFamily(newClusterContext("localhost:9160"), KEYSPACE, "users", "UTF8Type", "UTF8Type",
+                "UTF8Type");
+    }
+
+    @Test
+    public void testStopOnLastRelease() {
+        Map<String, Object> clientConfig = clientConfig();
+        AstyanaxClient client = AstyanaxClientFactory.acquire("refcount", clientConfig);
+        assertSame(client, AstyanaxClientFactory.acquire("refcount", clientConfig));
+        AstyanaxClient other = AstyanaxClientFactory.acquire("refcount-other", clientConfig);
+        assertNotSame(client, other);
+        AstyanaxClientFactory.release("refcount-other", other);
+
+        AstyanaxClientFactory.release("refcount", client);
+        assertFalse(client.isStopped());
+        AstyanaxClientFactory.release("refcount", client);
+        assertTrue(client.isStopped());
+
+        // a released client is not handed out again
+        AstyanaxClient next = AstyanaxClientFactory.acquire("refcount", clientConfig);
+        assertNotSame(client, next);
+        assertFalse(next.isStopped());
+        AstyanaxClientFactory.release("refcount", next);
+    }
+
+    @Test
+    public void testConcurrentAcquire() throws Exception {
+        final Map<String, Object> clientConfig = clientConfig();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<AstyanaxClient>> futures = new ArrayList<Future<AstyanaxClient>>();
+        for (int i = 0; i < 4; i++) {
+            futures.add(executor.submit(new Callable<AstyanaxClient>() {
+                @Override
+                public AstyanaxClient call() {
+                    return AstyanaxClientFactory.acquire("concurrent", clientConfig);
+                }
+            }));
+        }
+        AstyanaxClient client = futures.get(0).get();
+        for (Future<AstyanaxClient> future : futures) {
+            // every caller gets the one started client
+            assertSame(client, future.get());
+        }
+        executor.shutdown();
+        for (int i = 0; i < 3; i++) {
+            AstyanaxClientFactory.release("concurrent", client);
+            assertFalse(client.isStopped());
+        }
+        AstyanaxClientFactory.release("concurrent", client);
+        assertTrue(client.isStopped());
+    }
+
+    @Test
+    public void testConfigMismatch() {
+        AstyanaxClient client = AstyanaxClientFactory.acquire("mismatch", clientConfig());
+        Map<String, Object> otherConfig = clientConfig();
+        otherConfig.put(StormCassandraConstants.CASSANDRA_BATCH_TOKEN_AWARE, true);
+        try {
+            AstyanaxClientFactory.acquire("mismatch", otherConfig);
+            fail("a second config under the same id must be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        // the failed call took no reference
+        AstyanaxClientFactory.release("mismatch", client);
+        assertTrue(client.isStopped());
+
+        AstyanaxClient other = AstyanaxClientFactory.acquire("mismatch", otherConfig);
+        assertNotSame(client, other);
+        AstyanaxClientFactory.release("mismatch", other);
+    }
+
+    @SuppressWarnings("deprecation")
+    @Test
+    public void testGetInstanceTakesNoReference() {
+        AstyanaxClient client = AstyanaxClientFactory.acquire("unheld", clientConfig());
+        assertSame(client, AstyanaxClientFactory.getInstance("unheld", clientConfig()));
+        AstyanaxClientFactory.release("unheld", client);
+        assertTrue(client.isStopped());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testBoltAndFunctionShareClient() {
+        String configKey = "cassandra-shared";
+        Config config = new Config();
+        config.put(configKey, clientConfig());
+
+        CassandraBatchingBolt<String, String, String> bolt = new CassandraBatchingBolt<String, String, String>(
+                configKey, new DefaultTupleMapper(KEYSPACE, "users", "VALUE"));
+        TopologyBuilder builder = new TopologyBuilder();
+        builder.setBolt("TEST_SHARED_BOLT", bolt);
+        bolt.prepare(config, new MockTopologyContext(builder.createTopology(), new Fields("VALUE")), null);
+        TridentCassandraWriteFunction function = new TridentCassandraWriteFunction(configKey,
+                new SimpleTridentTupleMapper(KEYSPACE, new Fields("key1", "foo")));
+        function.prepare(config, null);
+
+        AstyanaxClient client = AstyanaxClientFactory.acquire(configKey, clientConfig());
+        AstyanaxClientFactory.release(configKey, client);
+
+        // the function's cleanup leaves the client to the bolt
+        function.cleanup();
+        assertFalse(client.isStopped());
+        bolt.cleanup();
+        assertTrue(client.isStopped());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testStateAndBoltShareClient() {
+        String configKey = "cassandra-state-shared";
+        Config config = new Config();
+        config.put(configKey, clientConfig());
+
+        CassandraBatchingBolt<String, String, String> bolt = new CassandraBatchingBolt<String, String, String>(
+                configKey, new DefaultTupleMapper(KEYSPACE, "users", "VALUE"));
+        TopologyBuilder builder = new TopologyBuilder();
+        builder.setBolt("TEST_STATE_SHARED_BOLT", bolt);
+        bolt.prepare(config, new MockTopologyContext(builder.createTopology(), new Fields("VALUE")), null);
+        CassandraState state = (CassandraState) new CassandraStateFactory(configKey).makeState(config, null, 0, 1);
+
+        AstyanaxClient client = AstyanaxClientFactory.acquire(configKey, clientConfig());
+        AstyanaxClientFactory.release(configKey, client);
+
+        // the bolt's cleanup leaves the client to the state
+        bolt.cleanup();
+        assertFalse(client.isStopped());
+        state.cleanup();
+        assertTrue(client.isStopped());
+    }
+
+    private static Map<String, Object> clientConfig() {
+        Map<String, Object> clientConfig = new HashMap<String, Object>();
+        clientConfig.put(StormCassandraConstants.CASSANDRA_HOST, "localhost:9160");
+        clientConfig.put(StormCassandraConstants.CASSANDRA_KEYSPACE, Arrays.asList(new String[] { KEYSPACE }));
+        return clientConfig;
+    }
+}
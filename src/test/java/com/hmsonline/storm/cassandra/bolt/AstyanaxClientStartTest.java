@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hmsonline.storm.cassandra.bolt;
+
+import static com.hmsonline.storm.cassandra.bolt.AstyanaxUtil.createColumnFamily;
+import static com.hmsonline.storm.cassandra.bolt.AstyanaxUtil.newClusterContext;
+import static com.hmsonline.storm.cassandra.bolt.AstyanaxUtil.newContext;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Tuple;
+import backtype.storm.tuple.Values;
+
+import com.hmsonline.storm.cassandra.StormCassandraConstants;
+import com.hmsonline.storm.cassandra.bolt.mapper.DefaultTupleMapper;
+import com.hmsonline.storm.cassandra.client.AstyanaxClient;
+import com.netflix.astyanax.AstyanaxContext;
+import com.netflix.astyanax.Cluster;
+import com.netflix.astyanax.Keyspace;
+import com.netflix.astyanax.model.ColumnFamily;
+import com.netflix.astyanax.serializers.StringSerializer;
+
+public class AstyanaxClientStartTest {
+    private static String KEYSPACE = AstyanaxClientStartTest.class.getSimpleName().toLowerCase();
+    private static String OTHER_KEYSPACE = KEYSPACE + "_other";
+    // never created, so connecting to it fails
+    private static String MISSING_KEYSPACE = KEYSPACE + "_missing";
+    private static final Fields FIELDS = new Fields("VALUE");
+
+    @BeforeClass
+    public static void setupCassandra() throws Exception {
+        SingletonEmbeddedCassandra.getInstance();
+        AstyanaxContext<Cluster> clusterContext = newClusterContext("localhost:9160");
+        createColumnFamily(clusterContext, KEYSPACE, "users", "UTF8Type", "UTF8Type", "UTF8Type");
+        createColumnFamily(clusterContext, OTHER_KEYSPACE, "users", "UTF8Type", "UTF8Type", "UTF8Type");
+    }
+
+    @Test
+    public void testSharedPool() throws Exception {
+        Map<String, Object> clientConfig = clientConfig(KEYSPACE, OTHER_KEYSPACE);
+        clientConfig.put(StormCassandraConstants.CASSANDRA_POOL_SHARED, true);
+        assertWritesToBothKeyspaces(clientConfig, "shared");
+    }
+
+    @Test
+    public void testSharedPoolRejectsStartupOptions() {
+        Map<String, Object> clientConfig = clientConfig(KEYSPACE);
+        clientConfig.put(StormCassandraConstants.CASSANDRA_POOL_SHARED, true);
+        clientConfig.put(StormCassandraConstants.CASSANDRA_STARTUP_THREADS, 2);
+        assertRejected(clientConfig);
+
+        clientConfig.remove(StormCassandraConstants.CASSANDRA_STARTUP_THREADS);
+        clientConfig.put(StormCassandraConstants.CASSANDRA_STARTUP_LAZY, true);
+        assertRejected(clientConfig);
+    }
+
+    @Test
+    public void testParallelStartup() throws Exception {
+        Map<String, Object> clientConfig = clientConfig(KEYSPACE, OTHER_KEYSPACE);
+        clientConfig.put(StormCassandraConstants.CASSANDRA_STARTUP_THREADS, 2);
+        clientConfig.put(StormCassandraConstants.CASSANDRA_STARTUP_JITTER_MS, 50);
+        assertWritesToBothKeyspaces(clientConfig, "parallel");
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Test
+    public void testLazyStartup() throws Exception {
+        Map<String, Object> clientConfig = clientConfig(KEYSPACE, MISSING_KEYSPACE);
+        clientConfig.put(StormCassandraConstants.CASSANDRA_STARTUP_LAZY, true);
+        // nothing is connected yet, so the missing keyspace goes unnoticed
+        AstyanaxClient client = new AstyanaxClient();
+        client.start(clientConfig);
+        try {
+            // the first write and lookup start the keyspace they use
+            DefaultTupleMapper mapper = new DefaultTupleMapper(KEYSPACE, "users", "VALUE");
+            Tuple tuple = new MockTuple(FIELDS, new Values("lazy"));
+            client.writeTuple(tuple, mapper);
+            assertEquals("lazy", client.lookup(mapper, tuple).get("VALUE"));
+        } finally {
+            client.stop();
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    @Test
+    public void testFailedStartupStopsClient() {
+        Map<String, Object> clientConfig = clientConfig(KEYSPACE, OTHER_KEYSPACE, MISSING_KEYSPACE);
+        clientConfig.put(StormCassandraConstants.CASSANDRA_STARTUP_THREADS, 3);
+        AstyanaxClient client = new AstyanaxClient();
+        try {
+            client.start(clientConfig);
+            fail("the missing keyspace must fail the start");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        // the keyspaces that did start have been shut down
+        assertTrue(client.isStopped());
+    }
+
+    /**
+     * Writes a row to the "users" column family of each keyspace through a
+     * client started with <code>clientConfig</code>, reads both back through
+     * the client, and checks each row landed in its own keyspace only.
+     */
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private static void assertWritesToBothKeyspaces(Map<String, Object> clientConfig, String prefix)
+            throws Exception {
+        AstyanaxClient client = new AstyanaxClient();
+        client.start(clientConfig);
+        DefaultTupleMapper mapper = new DefaultTupleMapper(KEYSPACE, "users", "VALUE");
+        DefaultTupleMapper otherMapper = new DefaultTupleMapper(OTHER_KEYSPACE, "users", "VALUE");
+        Tuple tuple = new MockTuple(FIELDS, new Values(prefix + "-1"));
+        Tuple otherTuple = new MockTuple(FIELDS, new Values(prefix + "-2"));
+        try {
+            client.writeTuple(tuple, mapper);
+            client.writeTuple(otherTuple, otherMapper);
+            assertEquals(prefix + "-1", client.lookup(mapper, tuple).get("VALUE"));
+            assertEquals(prefix + "-2", client.lookup(otherMapper, otherTuple).get("VALUE"));
+        } finally {
+            client.stop();
+        }
+
+        ColumnFamily<String, String> users = new ColumnFamily<String, String>("users", StringSerializer.get(),
+                StringSerializer.get());
+        Keyspace ks = newContext("localhost:9160", KEYSPACE).getEntity();
+        Keyspace otherKs = newContext("localhost:9160", OTHER_KEYSPACE).getEntity();
+        assertTrue(ks.prepareQuery(users).getKey(prefix + "-2").execute().getResult().isEmpty());
+        assertTrue(otherKs.prepareQuery(users).getKey(prefix + "-1").execute().getResult().isEmpty());
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static void assertRejected(Map<String, Object> clientConfig) {
+        AstyanaxClient client = new AstyanaxClient();
+        try {
+            client.start(clientConfig);
+            client.stop();
+            fail("expected " + clientConfig + " to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static Map<String, Object> clientConfig(String... keyspaces) {
+        Map<String, Object> clientConfig = new HashMap<String, Object>();
+        clientConfig.put(StormCassandraConstants.CASSANDRA_HOST, "localhost:9160");
+        clientConfig.put(StormCassandraConstants.CASSANDRA_KEYSPACE, Arrays.asList(keyspaces));
+        return clientConfig;
+    }
+}
@@ -21,11 +21,27 @@ import static com.hmsonline.storm.cassandra.bolt.AstyanaxUtil.createColumnFamily
 import static com.hmsonline.storm.cassandra.bolt.AstyanaxUtil.newClusterContext;
 import static com.hmsonline.storm.cassandra.bolt.AstyanaxUtil.newContext;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.cassandra.exceptions.ConfigurationException;
 import org.apache.thrift.transport.TTransportException;
@@ -35,19 +51,35 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import backtype.storm.Config;
+import backtype.storm.Constants;
+import backtype.storm.task.OutputCollector;
 import backtype.storm.task.TopologyContext;
+import backtype.storm.topology.BasicOutputCollector;
+import backtype.storm.topology.OutputFieldsDeclarer;
 import backtype.storm.topology.TopologyBuilder;
 import backtype.storm.tuple.Fields;
 import backtype.storm.tuple.Tuple;
 import backtype.storm.tuple.TupleImpl;
 import backtype.storm.tuple.Values;
 
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import com.hmsonline.storm.cassandra.StormCassandraConstants;
+import com.hmsonline.storm.cassandra.bolt.mapper.ColumnMapper;
+import com.hmsonline.storm.cassandra.bolt.mapper.DefaultTupleCounterMapper;
 import com.hmsonline.storm.cassandra.bolt.mapper.DefaultTupleMapper;
+import com.hmsonline.storm.cassandra.bolt.mapper.Equality;
 import com.hmsonline.storm.cassandra.bolt.mapper.TupleMapper;
+import com.hmsonline.storm.cassandra.client.AstyanaxClient;
+import com.hmsonline.storm.cassandra.client.ColumnPageHandler;
+import com.hmsonline.storm.cassandra.exceptions.PartialWriteException;
 import com.netflix.astyanax.AstyanaxContext;
 import com.netflix.astyanax.Cluster;
 import com.netflix.astyanax.Keyspace;
+import com.netflix.astyanax.MutationBatch;
+import com.netflix.astyanax.connectionpool.OperationResult;
 import com.netflix.astyanax.model.Column;
 import com.netflix.astyanax.model.ColumnFamily;
 import com.netflix.astyanax.serializers.StringSerializer;
@@ -55,6 +87,8 @@ import com.netflix.astyanax.serializers.StringSerializer;
 public class CassandraBoltTest {
     private static Logger LOG = LoggerFactory.getLogger(CassandraBoltTest.class);
     private static String KEYSPACE = CassandraBoltTest.class.getSimpleName().toLowerCase();
+    // has no "users" column family, so writes to it fail
+    private static String OTHER_KEYSPACE = KEYSPACE + "_other";
 
 
     @BeforeClass
@@ -66,6 +100,8 @@ public class CassandraBoltTest {
             AstyanaxContext<Cluster> clusterContext = newClusterContext("localhost:9160");
             createColumnFamily(clusterContext, KEYSPACE, "users","UTF8Type", "UTF8Type", "UTF8Type");
             createColumnFamily(clusterContext, KEYSPACE, "Counts", "UTF8Type", "UTF8Type", "CounterColumnType", true);
+            createColumnFamily(clusterContext, KEYSPACE, "wide", "UTF8Type", "UTF8Type", "UTF8Type");
+            createColumnFamily(clusterContext, OTHER_KEYSPACE, "wide", "UTF8Type", "UTF8Type", "UTF8Type");
 
         } catch (Exception e) {
             LOG.warn("Couldn't setup cassandra.", e);
@@ -113,6 +149,62 @@ public class CassandraBoltTest {
 
     }
 
+    @Test
+    public void testTickBolt() throws Exception {
+        TupleMapper<String, String, String> tupleMapper = new DefaultTupleMapper(KEYSPACE, "users", "VALUE");
+        String configKey = "cassandra-config";
+        CassandraTickBatchingBolt<String, String, String> bolt = new CassandraTickBatchingBolt<String, String, String>(configKey, tupleMapper);
+        TopologyBuilder builder = new TopologyBuilder();
+        builder.setBolt("TEST_TICK_BOLT", bolt);
+
+        Fields fields = new Fields("VALUE");
+        TopologyContext context = new MockTopologyContext(builder.createTopology(), fields);
+
+        Config config = new Config();
+        config.put(StormCassandraConstants.CASSANDRA_BATCH_MAX_SIZE, 2);
+
+        Map<String, Object> clientConfig = new HashMap<String, Object>();
+        clientConfig.put(StormCassandraConstants.CASSANDRA_HOST, "localhost:9160");
+        clientConfig.put(StormCassandraConstants.CASSANDRA_KEYSPACE, Arrays.asList(new String [] {KEYSPACE}));
+        config.put(configKey, clientConfig);
+
+        bolt.prepare(config, context, null);
+
+        AstyanaxContext<Keyspace> astyContext = newContext("localhost:9160", KEYSPACE);
+        Keyspace ks = astyContext.getEntity();
+        ColumnFamily<String, String> users = new ColumnFamily<String, String>("users", StringSerializer.get(),
+                StringSerializer.get());
+
+        // the first tuple stays buffered until the tick tuple flushes it
+        bolt.execute(new TupleImpl(context, new Values(43), 5, "test"));
+        assertTrue(ks.prepareQuery(users).getKey("43").execute().getResult().isEmpty());
+
+        bolt.execute(new MockTuple(new Fields(), new Values()) {
+            @Override
+            public String getSourceComponent() {
+                return Constants.SYSTEM_COMPONENT_ID;
+            }
+
+            @Override
+            public String getSourceStreamId() {
+                return Constants.SYSTEM_TICK_STREAM_ID;
+            }
+        });
+        assertEquals("43", ks.prepareQuery(users).getKey("43").getColumn("VALUE").execute().getResult()
+                .getStringValue());
+
+        // the next tuple stays buffered, the one after fills the batch and
+        // flushes both on the executor thread
+        bolt.execute(new TupleImpl(context, new Values(44), 5, "test"));
+        assertTrue(ks.prepareQuery(users).getKey("44").execute().getResult().isEmpty());
+
+        bolt.execute(new TupleImpl(context, new Values(45), 5, "test"));
+        assertEquals("44", ks.prepareQuery(users).getKey("44").getColumn("VALUE").execute().getResult()
+                .getStringValue());
+        assertEquals("45", ks.prepareQuery(users).getKey("45").getColumn("VALUE").execute().getResult()
+                .getStringValue());
+    }
+
     @Test
     public void testCounterBolt() throws Exception {
         String configKey = "cassandra-config";
@@ -151,4 +243,868 @@ public class CassandraBoltTest {
                 .getKey("1").getColumn("MyCountColumn").execute().getResult();
         assertEquals(1L, result.getLongValue());
     }
+
+    @Test
+    public void testCounterIncrementsSummed() throws Exception {
+        TopologyBuilder builder = new TopologyBuilder();
+        builder.setBolt("TEST_COUNTER_SUM_BOLT", new CassandraBatchingBolt<String, String, String>("unused", null));
+        Fields fields = new Fields("Timestamp", "IncrementAmount", "CounterColumn");
+        TopologyContext context = new MockTopologyContext(builder.createTopology(), fields);
+
+        Map<String, Object> clientConfig = new HashMap<String, Object>();
+        clientConfig.put(StormCassandraConstants.CASSANDRA_HOST, "localhost:9160");
+        clientConfig.put(StormCassandraConstants.CASSANDRA_KEYSPACE, Arrays.asList(new String [] {KEYSPACE}));
+        AstyanaxClient<String, String, Long> client = new AstyanaxClient<String, String, Long>();
+        client.start(clientConfig);
+
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        tuples.add(new TupleImpl(context, new Values("2", 1L, "Summed"), 5, "test"));
+        tuples.add(new TupleImpl(context, new Values("2", 2L, "Summed"), 5, "test"));
+        tuples.add(new TupleImpl(context, new Values("2", 3L, "Summed"), 5, "test"));
+        // cancels out, so the row is not written at all
+        tuples.add(new TupleImpl(context, new Values("3", 5L, "Cancelled"), 5, "test"));
+        tuples.add(new TupleImpl(context, new Values("3", -5L, "Cancelled"), 5, "test"));
+        client.incrementCountColumns(tuples, new DefaultTupleCounterMapper(KEYSPACE, "Counts", "Timestamp",
+                "IncrementAmount"));
+        client.stop();
+
+        AstyanaxContext<Keyspace> astyContext = newContext("localhost:9160", KEYSPACE);
+        Keyspace ks = astyContext.getEntity();
+        ColumnFamily<String, String> counts = new ColumnFamily<String, String>("Counts", StringSerializer.get(),
+                StringSerializer.get());
+        assertEquals(6L, ks.prepareQuery(counts).getKey("2").getColumn("Summed").execute().getResult()
+                .getLongValue());
+        assertTrue(ks.prepareQuery(counts).getKey("3").execute().getResult().isEmpty());
+    }
+
+    @Test
+    public void testLingerFlush() throws Exception {
+        Config config = new Config();
+        config.put(StormCassandraConstants.CASSANDRA_BATCH_LINGER_MS, 300);
+        RecordingBatchingBolt bolt = new RecordingBatchingBolt("cassandra-config", new DefaultTupleMapper(KEYSPACE,
+                "users", "VALUE"));
+        RecordingOutputCollector collector = new RecordingOutputCollector();
+        prepareBatchingBolt(bolt, "TEST_LINGER_BOLT", config, collector);
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 3; i++) {
+            bolt.execute(new MockTuple(new Fields("VALUE"), new Values("linger" + i)));
+        }
+        collector.await(3, 5000);
+        long elapsed = System.currentTimeMillis() - start;
+        bolt.cleanup();
+
+        // held back for the linger time, then flushed together
+        assertEquals(1, bolt.batches.size());
+        assertEquals(3, bolt.batches.get(0).size());
+        assertTrue("flushed after " + elapsed + " ms", elapsed >= 250);
+    }
+
+    @Test
+    public void testFlushBytes() throws Exception {
+        Config config = new Config();
+        // three of the 4 byte values below
+        config.put(StormCassandraConstants.CASSANDRA_BATCH_FLUSH_BYTES, 10);
+        config.put(StormCassandraConstants.CASSANDRA_BATCH_LINGER_MS, 5000);
+        RecordingBatchingBolt bolt = new RecordingBatchingBolt("cassandra-config", new DefaultTupleMapper(KEYSPACE,
+                "users", "VALUE"));
+        RecordingOutputCollector collector = new RecordingOutputCollector();
+        prepareBatchingBolt(bolt, "TEST_FLUSH_BYTES_BOLT", config, collector);
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 6; i++) {
+            bolt.execute(new MockTuple(new Fields("VALUE"), new Values("byt" + i)));
+        }
+        collector.await(6, 4000);
+        long elapsed = System.currentTimeMillis() - start;
+        bolt.cleanup();
+
+        // flushed as soon as the budget is reached, not after the linger time
+        assertEquals(2, bolt.batches.size());
+        assertEquals(3, bolt.batches.get(0).size());
+        assertEquals(3, bolt.batches.get(1).size());
+        assertTrue("flushed after " + elapsed + " ms", elapsed < 5000);
+    }
+
+    @Test
+    public void testFlushThreadsKeepRowOrder() throws Exception {
+        Config config = new Config();
+        config.put(StormCassandraConstants.CASSANDRA_BATCH_FLUSH_THREADS, 4);
+        // small batches, so that the tuples of a row span several of them
+        config.put(StormCassandraConstants.CASSANDRA_BATCH_MAX_SIZE, 2);
+        RecordingBatchingBolt bolt = new RecordingBatchingBolt("cassandra-config", new DefaultTupleMapper(KEYSPACE,
+                "users", "VALUE"));
+        RecordingOutputCollector collector = new RecordingOutputCollector();
+        prepareBatchingBolt(bolt, "TEST_FLUSH_THREADS_BOLT", config, collector);
+
+        Fields fields = new Fields("VALUE", "SEQ");
+        for (int seq = 0; seq < 5; seq++) {
+            for (int key = 0; key < 8; key++) {
+                bolt.execute(new MockTuple(fields, new Values("k" + key, seq)));
+            }
+        }
+        collector.await(40, 5000);
+        bolt.cleanup();
+        assertEquals(40, collector.acked.size());
+
+        // every row is flushed by one thread, in the order it was received
+        Map<Object, String> threadForRow = new HashMap<Object, String>();
+        Map<Object, Integer> lastSeq = new HashMap<Object, Integer>();
+        synchronized (bolt.batches) {
+            for (int i = 0; i < bolt.batches.size(); i++) {
+                String thread = bolt.threads.get(i);
+                for (Tuple input : bolt.batches.get(i)) {
+                    Object row = input.getValueByField("VALUE");
+                    int seq = (Integer) input.getValueByField("SEQ");
+                    String previous = threadForRow.put(row, thread);
+                    assertTrue(previous == null || previous.equals(thread));
+                    Integer last = lastSeq.put(row, seq);
+                    assertTrue(last == null || last < seq);
+                }
+            }
+        }
+        assertEquals(8, lastSeq.size());
+        assertTrue(new HashSet<String>(bolt.threads).size() > 1);
+    }
+
+    @Test
+    public void testOverflowFail() throws Exception {
+        RecordingOutputCollector collector = new RecordingOutputCollector();
+        RecordingBatchingBolt bolt = fillQueue("TEST_OVERFLOW_FAIL_BOLT", OverflowPolicy.FAIL, collector);
+        List<Tuple> overflowing = overflow(bolt);
+        // failed right away, before anything is written
+        assertEquals(overflowing, collector.failed);
+        assertTrue(collector.acked.isEmpty());
+
+        bolt.release();
+        collector.await(5, 5000);
+        bolt.cleanup();
+        assertEquals(3, bolt.executed().size());
+        assertEquals(bolt.executed(), collector.acked);
+        assertEquals(overflowing, collector.failed);
+    }
+
+    @Test
+    public void testOverflowShed() throws Exception {
+        RecordingOutputCollector collector = new RecordingOutputCollector();
+        RecordingBatchingBolt bolt = fillQueue("TEST_OVERFLOW_SHED_BOLT", OverflowPolicy.SHED, collector);
+        List<Tuple> overflowing = overflow(bolt);
+        // dropped and acked right away, so they are not replayed
+        assertEquals(overflowing, collector.acked);
+
+        bolt.release();
+        collector.await(5, 5000);
+        bolt.cleanup();
+        List<Tuple> executed = bolt.executed();
+        assertEquals(3, executed.size());
+        for (Tuple input : overflowing) {
+            assertFalse(executed.contains(input));
+        }
+        assertTrue(collector.failed.isEmpty());
+    }
+
+    @Test
+    public void testOverflowBlock() throws Exception {
+        RecordingOutputCollector collector = new RecordingOutputCollector();
+        final RecordingBatchingBolt bolt = fillQueue("TEST_OVERFLOW_BLOCK_BOLT", OverflowPolicy.BLOCK, collector);
+        final Tuple blocked = new MockTuple(new Fields("VALUE"), new Values("overflow-block"));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<?> execute = executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                bolt.execute(blocked);
+            }
+        });
+        // execute() waits for room in the queue
+        Thread.sleep(200);
+        assertFalse(execute.isDone());
+
+        bolt.release();
+        execute.get(5, TimeUnit.SECONDS);
+        executor.shutdown();
+        collector.await(4, 5000);
+        bolt.cleanup();
+        assertTrue(bolt.executed().contains(blocked));
+        assertEquals(4, collector.acked.size());
+        assertTrue(collector.failed.isEmpty());
+    }
+
+    /**
+     * Prepares a bolt with a queue of two and the given overflow policy,
+     * and fills its queue while its batch thread is held up writing a
+     * first tuple.
+     */
+    private static RecordingBatchingBolt fillQueue(String name, OverflowPolicy policy,
+            RecordingOutputCollector collector) throws InterruptedException {
+        Config config = new Config();
+        config.put(StormCassandraConstants.CASSANDRA_BATCH_QUEUE_CAPACITY, 2);
+        config.put(StormCassandraConstants.CASSANDRA_BATCH_OVERFLOW_POLICY, policy.name().toLowerCase());
+        RecordingBatchingBolt bolt = new RecordingBatchingBolt("cassandra-config", new DefaultTupleMapper(KEYSPACE,
+                "users", "VALUE"));
+        prepareBatchingBolt(bolt, name, config, collector);
+        bolt.hold();
+        bolt.execute(new MockTuple(new Fields("VALUE"), new Values(name + "-0")));
+        bolt.awaitHeld();
+        bolt.execute(new MockTuple(new Fields("VALUE"), new Values(name + "-1")));
+        bolt.execute(new MockTuple(new Fields("VALUE"), new Values(name + "-2")));
+        return bolt;
+    }
+
+    /**
+     * Executes two tuples that do not fit the full queue.
+     */
+    private static List<Tuple> overflow(RecordingBatchingBolt bolt) {
+        List<Tuple> overflowing = new ArrayList<Tuple>();
+        for (int i = 0; i < 2; i++) {
+            Tuple input = new MockTuple(new Fields("VALUE"), new Values("overflow" + i));
+            overflowing.add(input);
+            bolt.execute(input);
+        }
+        return overflowing;
+    }
+
+    @Test
+    public void testSpillAndReplay() throws Exception {
+        TupleMapper<String, String, String> tupleMapper = new DefaultTupleMapper(KEYSPACE, "users", "VALUE");
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch held = new CountDownLatch(1);
+        @SuppressWarnings("serial")
+        CassandraBatchingBolt<String, String, String> bolt = new CassandraBatchingBolt<String, String, String>(
+                "cassandra-config", tupleMapper) {
+            @Override
+            public void executeBatch(List<Tuple> inputs) {
+                // Cassandra is slow for the first batch only
+                started.countDown();
+                try {
+                    held.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.executeBatch(inputs);
+            }
+        };
+        bolt.setAckStrategy(AckStrategy.ACK_ON_WRITE);
+        TopologyBuilder builder = new TopologyBuilder();
+        builder.setBolt("TEST_SPILL_BOLT", bolt);
+        TopologyContext context = new MockTopologyContext(builder.createTopology(), new Fields("VALUE"));
+
+        File spillDir = File.createTempFile("spill", "");
+        assertTrue(spillDir.delete());
+        Config config = new Config();
+        config.put(StormCassandraConstants.CASSANDRA_BATCH_SPILL_DIR, spillDir.getPath());
+        config.put(StormCassandraConstants.CASSANDRA_BATCH_SPILL_WATERMARK, 1);
+        config.put(StormCassandraConstants.CASSANDRA_BATCH_SPILL_MAX_BYTES, 1 << 20);
+        config.put(StormCassandraConstants.CASSANDRA_BATCH_MAX_SIZE, 1);
+        config.put("cassandra-config", clientConfig());
+        RecordingOutputCollector collector = new RecordingOutputCollector();
+        bolt.prepare(config, context, new OutputCollector(collector));
+
+        bolt.execute(new TupleImpl(context, new Values(70), 5, "test"));
+        started.await();
+        // every batch but the last queued one finds tuples behind it, so
+        // 71 to 75 are spilled and only replayed once the queue is empty
+        for (int i = 71; i < 77; i++) {
+            bolt.execute(new TupleImpl(context, new Values(i), 5, "test"));
+        }
+        held.countDown();
+        collector.await(7, 5000);
+
+        Keyspace ks = newContext("localhost:9160", KEYSPACE).getEntity();
+        ColumnFamily<String, String> users = new ColumnFamily<String, String>("users", StringSerializer.get(),
+                StringSerializer.get());
+        long deadline = System.currentTimeMillis() + 5000;
+        for (int i = 70; i < 77; i++) {
+            String key = String.valueOf(i);
+            while (ks.prepareQuery(users).getKey(key).execute().getResult().isEmpty()
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertEquals(key, ks.prepareQuery(users).getKey(key).getColumn("VALUE").execute().getResult()
+                    .getStringValue());
+        }
+        bolt.cleanup();
+
+        assertEquals(7, collector.acked.size());
+        assertTrue(collector.failed.isEmpty());
+    }
+
+    @Test
+    public void testBisectFailures() throws Exception {
+        TupleMapper<String, String, String> tupleMapper = new DefaultTupleMapper(KEYSPACE, "users", "VALUE");
+        String configKey = "cassandra-config";
+        CassandraBatchingBolt<String, String, String> bolt = new CassandraBatchingBolt<String, String, String>(configKey, tupleMapper);
+        bolt.setAckStrategy(AckStrategy.ACK_ON_WRITE);
+        TopologyBuilder builder = new TopologyBuilder();
+        builder.setBolt("TEST_BISECT_BOLT", bolt);
+
+        Fields fields = new Fields("VALUE");
+        TopologyContext context = new MockTopologyContext(builder.createTopology(), fields);
+
+        Config config = new Config();
+        config.put(StormCassandraConstants.CASSANDRA_BATCH_BISECT_FAILURES, true);
+        Map<String, Object> clientConfig = new HashMap<String, Object>();
+        clientConfig.put(StormCassandraConstants.CASSANDRA_HOST, "localhost:9160");
+        clientConfig.put(StormCassandraConstants.CASSANDRA_KEYSPACE, Arrays.asList(new String [] {KEYSPACE}));
+        config.put(configKey, clientConfig);
+
+        RecordingOutputCollector collector = new RecordingOutputCollector();
+        bolt.prepare(config, context, new OutputCollector(collector));
+
+        List<Tuple> batch = new ArrayList<Tuple>();
+        for (int i = 50; i < 55; i++) {
+            batch.add(new TupleImpl(context, new Values(i), 5, "test"));
+        }
+        // a row key over 64k, so Cassandra rejects the whole batch
+        StringBuilder oversized = new StringBuilder();
+        for (int i = 0; i < 70000; i++) {
+            oversized.append('x');
+        }
+        Tuple poison = new TupleImpl(context, new Values(oversized.toString()), 5, "test");
+        batch.add(2, poison);
+        bolt.executeBatch(batch);
+        collector.await(batch.size(), 5000);
+        bolt.cleanup();
+
+        assertEquals(Arrays.asList(poison), collector.failed);
+        assertEquals(5, collector.acked.size());
+        AstyanaxContext<Keyspace> astyContext = newContext("localhost:9160", KEYSPACE);
+        Keyspace ks = astyContext.getEntity();
+        ColumnFamily<String, String> users = new ColumnFamily<String, String>("users", StringSerializer.get(),
+                StringSerializer.get());
+        for (int i = 50; i < 55; i++) {
+            assertEquals(String.valueOf(i), ks.prepareQuery(users).getKey(String.valueOf(i)).getColumn("VALUE")
+                    .execute().getResult().getStringValue());
+        }
+    }
+
+    @Test
+    public void testBisectOnlyRejectedBatches() throws Exception {
+        TupleMapper<String, String, String> tupleMapper = new DefaultTupleMapper(KEYSPACE, "users", "VALUE");
+        String configKey = "cassandra-config";
+        CassandraBatchingBolt<String, String, String> bolt = new CassandraBatchingBolt<String, String, String>(configKey, tupleMapper);
+        bolt.setAckStrategy(AckStrategy.ACK_ON_WRITE);
+        TopologyBuilder builder = new TopologyBuilder();
+        builder.setBolt("TEST_NO_BISECT_BOLT", bolt);
+
+        Fields fields = new Fields("VALUE");
+        TopologyContext context = new MockTopologyContext(builder.createTopology(), fields);
+
+        Config config = new Config();
+        config.put(StormCassandraConstants.CASSANDRA_BATCH_BISECT_FAILURES, true);
+        config.put(configKey, clientConfig());
+
+        RecordingOutputCollector collector = new RecordingOutputCollector();
+        bolt.prepare(config, context, new OutputCollector(collector));
+
+        List<Tuple> batch = new ArrayList<Tuple>();
+        for (int i = 56; i < 60; i++) {
+            batch.add(new TupleImpl(context, new Values(i), 5, "test"));
+        }
+        // a NullPointerException says nothing about the data, so the batch
+        // is failed as a whole rather than retried
+        batch.add(1, new TupleImpl(context, new Values((Object) null), 5, "test"));
+        bolt.executeBatch(batch);
+        collector.await(batch.size(), 5000);
+        bolt.cleanup();
+
+        assertEquals(batch, collector.failed);
+        assertTrue(collector.acked.isEmpty());
+    }
+
+    @Test
+    public void testDrainFailsLateRejections() throws Exception {
+        SlowRejectingBolt bolt = new SlowRejectingBolt(500);
+        Config config = new Config();
+        config.put(StormCassandraConstants.CASSANDRA_BATCH_BISECT_FAILURES, true);
+        config.put(StormCassandraConstants.CASSANDRA_BATCH_MAX_IN_FLIGHT, 2);
+        config.put(StormCassandraConstants.CASSANDRA_BATCH_DRAIN_TIMEOUT_MS, 100);
+        RecordingOutputCollector collector = new RecordingOutputCollector();
+        prepareBatchingBolt(bolt, "TEST_LATE_REJECTION_BOLT", config, collector);
+
+        Fields fields = new Fields("VALUE");
+        List<Tuple> batch = new ArrayList<Tuple>();
+        batch.add(new MockTuple(fields, new Values("80")));
+        batch.add(new MockTuple(fields, new Values("81")));
+        bolt.executeBatch(batch);
+        // gives up on the batch in flight before it is rejected
+        bolt.cleanup();
+        collector.await(batch.size(), 5000);
+
+        // the halves would never be written, so they are failed
+        assertEquals(batch, collector.failed);
+        assertTrue(collector.acked.isEmpty());
+    }
+
+    @Test
+    public void testBisectCounterFailures() throws Exception {
+        String configKey = "cassandra-config";
+        CassandraCounterBatchingBolt<String, String, Long> bolt = new CassandraCounterBatchingBolt<String, String, Long>(KEYSPACE, configKey, "Counts", "Timestamp", "IncrementAmount");
+        bolt.setAckStrategy(AckStrategy.ACK_ON_WRITE);
+        TopologyBuilder builder = new TopologyBuilder();
+        builder.setBolt("TEST_BISECT_COUNTER_BOLT", bolt);
+
+        Fields fields = new Fields("Timestamp", "IncrementAmount", "CounterColumn");
+        TopologyContext context = new MockTopologyContext(builder.createTopology(), fields);
+
+        Config config = new Config();
+        config.put(StormCassandraConstants.CASSANDRA_BATCH_BISECT_FAILURES, true);
+        // retried halves are written on the batch thread, not the callback
+        config.put(StormCassandraConstants.CASSANDRA_BATCH_MAX_IN_FLIGHT, 2);
+        Map<String, Object> clientConfig = new HashMap<String, Object>();
+        clientConfig.put(StormCassandraConstants.CASSANDRA_HOST, "localhost:9160");
+        clientConfig.put(StormCassandraConstants.CASSANDRA_KEYSPACE, Arrays.asList(new String [] {KEYSPACE}));
+        config.put(configKey, clientConfig);
+
+        RecordingOutputCollector collector = new RecordingOutputCollector();
+        bolt.prepare(config, context, new OutputCollector(collector));
+
+        List<Tuple> batch = new ArrayList<Tuple>();
+        for (int i = 0; i < 4; i++) {
+            batch.add(new TupleImpl(context, new Values("4", 1L, "Bisected"), 5, "test"));
+        }
+        // not a number, so the whole batch is rejected before it is sent
+        Tuple poison = new TupleImpl(context, new Values("4", "one", "Bisected"), 5, "test");
+        batch.add(1, poison);
+        bolt.executeBatch(batch);
+        collector.await(batch.size(), 5000);
+        bolt.cleanup();
+
+        assertEquals(Arrays.asList(poison), collector.failed);
+        assertEquals(4, collector.acked.size());
+        AstyanaxContext<Keyspace> astyContext = newContext("localhost:9160", KEYSPACE);
+        Keyspace ks = astyContext.getEntity();
+        ColumnFamily<String, String> counts = new ColumnFamily<String, String>("Counts", StringSerializer.get(),
+                StringSerializer.get());
+        // every increment is applied exactly once
+        assertEquals(4L, ks.prepareQuery(counts).getKey("4").getColumn("Bisected").execute().getResult()
+                .getLongValue());
+    }
+
+    @Test
+    public void testAsyncWrite() throws Exception {
+        AstyanaxClient<String, String, String> client = new AstyanaxClient<String, String, String>();
+        client.start(clientConfig());
+        Fields fields = new Fields("VALUE");
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        tuples.add(new MockTuple(fields, new Values("60")));
+        tuples.add(new MockTuple(fields, new Values("61")));
+
+        final CountDownLatch written = new CountDownLatch(1);
+        ListenableFuture<List<OperationResult<Void>>> future = client.writeTuplesAsync(tuples,
+                new DefaultTupleMapper(KEYSPACE, "users", "VALUE"));
+        Futures.addCallback(future, new FutureCallback<List<OperationResult<Void>>>() {
+            @Override
+            public void onSuccess(List<OperationResult<Void>> results) {
+                written.countDown();
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+            }
+        });
+        assertTrue(written.await(5, TimeUnit.SECONDS));
+        // one keyspace, one mutation batch
+        assertEquals(1, future.get().size());
+        Keyspace ks = newContext("localhost:9160", KEYSPACE).getEntity();
+        ColumnFamily<String, String> users = new ColumnFamily<String, String>("users", StringSerializer.get(),
+                StringSerializer.get());
+        for (String key : new String[] { "60", "61" }) {
+            assertEquals(key, ks.prepareQuery(users).getKey(key).getColumn("VALUE").execute().getResult()
+                    .getStringValue());
+        }
+
+        // a write Cassandra rejects fails the future rather than the call
+        future = client.writeTuplesAsync(tuples, new DefaultTupleMapper(KEYSPACE, "missing", "VALUE"));
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+        }
+        client.stop();
+    }
+
+    @SuppressWarnings("serial")
+    @Test
+    public void testPartialWrite() throws Exception {
+        TupleMapper<String, String, String> tupleMapper = new DefaultTupleMapper(KEYSPACE, "users", "VALUE") {
+            @Override
+            public String mapToKeyspace(Tuple tuple) {
+                return tuple.getStringByField("KEYSPACE");
+            }
+        };
+        String configKey = "cassandra-partial";
+        CassandraBatchingBolt<String, String, String> bolt = new CassandraBatchingBolt<String, String, String>(
+                configKey, tupleMapper);
+        bolt.setAckStrategy(AckStrategy.ACK_ON_WRITE);
+        TopologyBuilder builder = new TopologyBuilder();
+        builder.setBolt("TEST_PARTIAL_BOLT", bolt);
+        Fields fields = new Fields("VALUE", "KEYSPACE");
+        TopologyContext context = new MockTopologyContext(builder.createTopology(), fields);
+
+        Map<String, Object> clientConfig = new HashMap<String, Object>();
+        clientConfig.put(StormCassandraConstants.CASSANDRA_HOST, "localhost:9160");
+        clientConfig.put(StormCassandraConstants.CASSANDRA_KEYSPACE,
+                Arrays.asList(new String[] { KEYSPACE, OTHER_KEYSPACE }));
+        Config config = new Config();
+        config.put(configKey, clientConfig);
+        RecordingOutputCollector collector = new RecordingOutputCollector();
+        bolt.prepare(config, context, new OutputCollector(collector));
+
+        List<Tuple> batch = new ArrayList<Tuple>();
+        batch.add(new TupleImpl(context, new Values("70", KEYSPACE), 5, "test"));
+        Tuple failed = new TupleImpl(context, new Values("71", OTHER_KEYSPACE), 5, "test");
+        batch.add(failed);
+        batch.add(new TupleImpl(context, new Values("72", KEYSPACE), 5, "test"));
+
+        // the client names the keyspace and tuples that failed
+        AstyanaxClient<String, String, String> client = new AstyanaxClient<String, String, String>();
+        client.start(clientConfig);
+        try {
+            client.writeTuples(batch, tupleMapper);
+            fail();
+        } catch (PartialWriteException e) {
+            assertEquals(Collections.singleton(OTHER_KEYSPACE), e.getFailedKeyspaces());
+            assertEquals(Arrays.asList(failed), e.getFailedInputs());
+        }
+        client.stop();
+
+        // the bolt acks the tuples of the keyspace that was written
+        bolt.executeBatch(batch);
+        collector.await(batch.size(), 5000);
+        bolt.cleanup();
+        assertEquals(Arrays.asList(failed), collector.failed);
+        assertEquals(Arrays.asList(batch.get(0), batch.get(2)), collector.acked);
+        Keyspace ks = newContext("localhost:9160", KEYSPACE).getEntity();
+        ColumnFamily<String, String> users = new ColumnFamily<String, String>("users", StringSerializer.get(),
+                StringSerializer.get());
+        for (String key : new String[] { "70", "72" }) {
+            assertEquals(key, ks.prepareQuery(users).getKey(key).getColumn("VALUE").execute().getResult()
+                    .getStringValue());
+        }
+    }
+
+    @Test
+    public void testTokenAwareWrite() throws Exception {
+        Map<String, Object> clientConfig = clientConfig();
+        clientConfig.put(StormCassandraConstants.CASSANDRA_BATCH_TOKEN_AWARE, true);
+        AstyanaxClient<String, String, String> client = new AstyanaxClient<String, String, String>();
+        client.start(clientConfig);
+        TupleMapper<String, String, String> tupleMapper = new DefaultTupleMapper(KEYSPACE, "users", "VALUE");
+        Fields fields = new Fields("VALUE");
+
+        // the ring is described in the background after the first write
+        client.writeTuple(new MockTuple(fields, new Values("80")), tupleMapper);
+        Thread.sleep(500);
+
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 81; i < 90; i++) {
+            tuples.add(new MockTuple(fields, new Values(String.valueOf(i))));
+        }
+        List<OperationResult<Void>> results = client.writeTuplesAsync(tuples, tupleMapper).get();
+        client.stop();
+        // the one node owns every row: one batch, sent to that node
+        assertEquals(1, results.size());
+        assertEquals("127.0.0.1", results.get(0).getHost().getIpAddress());
+        Keyspace ks = newContext("localhost:9160", KEYSPACE).getEntity();
+        ColumnFamily<String, String> users = new ColumnFamily<String, String>("users", StringSerializer.get(),
+                StringSerializer.get());
+        for (int i = 80; i < 90; i++) {
+            assertEquals(String.valueOf(i), ks.prepareQuery(users).getKey(String.valueOf(i)).getColumn("VALUE")
+                    .execute().getResult().getStringValue());
+        }
+    }
+
+    @Test
+    public void testMaxBytesSplit() throws Exception {
+        Map<String, Object> clientConfig = clientConfig();
+        // two of the rows below (~49 bytes each) per batch
+        clientConfig.put(StormCassandraConstants.CASSANDRA_BATCH_MAX_BYTES, 100);
+        AstyanaxClient<String, String, String> client = new AstyanaxClient<String, String, String>();
+        client.start(clientConfig);
+        Fields fields = new Fields("VALUE");
+        List<Tuple> tuples = new ArrayList<Tuple>();
+        List<String> keys = new ArrayList<String>();
+        for (int i = 90; i < 100; i++) {
+            keys.add(String.valueOf(i));
+        }
+        // over budget on its own, so it gets a batch to itself
+        StringBuilder oversized = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            oversized.append('x');
+        }
+        keys.add(oversized.toString());
+        for (String key : keys) {
+            tuples.add(new MockTuple(fields, new Values(key)));
+        }
+        List<OperationResult<Void>> results = client.writeTuplesAsync(tuples,
+                new DefaultTupleMapper(KEYSPACE, "users", "VALUE")).get();
+        client.stop();
+
+        assertEquals(6, results.size());
+        Keyspace ks = newContext("localhost:9160", KEYSPACE).getEntity();
+        ColumnFamily<String, String> users = new ColumnFamily<String, String>("users", StringSerializer.get(),
+                StringSerializer.get());
+        for (String key : keys) {
+            assertEquals(key, ks.prepareQuery(users).getKey(key).getColumn("VALUE").execute().getResult()
+                    .getStringValue());
+        }
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked", "serial" })
+    @Test
+    public void testColumnFamilyCacheFollowsSerializers() throws Exception {
+        writeWideRow("cached", 2);
+        AstyanaxClient client = new AstyanaxClient();
+        client.start(clientConfig());
+        Tuple input = new MockTuple(new Fields("ROW"), new Values("cached"));
+        TupleMapper<String, String, String> byName = new DefaultTupleMapper(KEYSPACE, "wide", "ROW");
+        TupleMapper<String, ByteBuffer, String> byBytes = new TupleMapper<String, ByteBuffer, String>() {
+            @Override
+            public String mapToColumnFamily(Tuple tuple) {
+                return "wide";
+            }
+
+            @Override
+            public String mapToKeyspace(Tuple tuple) {
+                return KEYSPACE;
+            }
+
+            @Override
+            public String mapToRowKey(Tuple tuple) {
+                return tuple.getStringByField("ROW");
+            }
+
+            @Override
+            public Map<ByteBuffer, String> mapToColumns(Tuple tuple) {
+                return new HashMap<ByteBuffer, String>();
+            }
+
+            @Override
+            public Class<String> getKeyClass() {
+                return String.class;
+            }
+
+            @Override
+            public Class<ByteBuffer> getColumnNameClass() {
+                return ByteBuffer.class;
+            }
+
+            @Override
+            public Class<String> getColumnValueClass() {
+                return String.class;
+            }
+        };
+        Set<Object> names = new HashSet<Object>(columns(0, 1));
+        Set<Object> rawNames = new HashSet<Object>();
+        for (Object name : names) {
+            rawNames.add(StringSerializer.get().toByteBuffer((String) name));
+        }
+
+        // the same column family read with other column classes gets a
+        // column family with the matching serializers each time
+        assertEquals(names, client.lookup(byName, input).keySet());
+        assertEquals(rawNames, client.lookup(byBytes, input).keySet());
+        assertEquals(names, client.lookup(byName, input).keySet());
+        client.stop();
+    }
+
+    @Test
+    public void testPagedLookup() throws Exception {
+        writeWideRow("exact", 6);
+        writeWideRow("longer", 7);
+        AstyanaxClient<String, String, String> client = new AstyanaxClient<String, String, String>();
+        client.start(clientConfig());
+        TupleMapper<String, String, String> tupleMapper = new DefaultTupleMapper(KEYSPACE, "wide", "ROW");
+        Fields fields = new Fields("ROW");
+        Tuple exact = new MockTuple(fields, new Values("exact"));
+        Tuple longer = new MockTuple(fields, new Values("longer"));
+
+        // a multiple of the page size: no empty page at the end
+        PageRecorder pages = new PageRecorder();
+        client.lookup(tupleMapper, exact, 3, pages);
+        assertEquals(Arrays.asList(columns(0, 1, 2), columns(3, 4, 5)), pages.pages);
+
+        // one column more: a last page of one
+        pages = new PageRecorder();
+        client.lookup(tupleMapper, longer, 3, pages);
+        assertEquals(Arrays.asList(columns(0, 1, 2), columns(3, 4, 5), columns(6)), pages.pages);
+
+        pages = new PageRecorder();
+        client.lookup(tupleMapper, exact, 1, pages);
+        assertEquals(Arrays.asList(columns(0), columns(1), columns(2), columns(3), columns(4), columns(5)),
+                pages.pages);
+
+        // exclusive bounds are dropped without shortening a page
+        pages = new PageRecorder();
+        client.lookup(tupleMapper, longer, "c1", "c5", Equality.GREATER_THAN, 2, pages);
+        assertEquals(Arrays.asList(columns(2, 3), columns(4, 5)), pages.pages);
+
+        pages = new PageRecorder();
+        client.lookup(tupleMapper, longer, "c1", "c5", Equality.LESS_THAN, 2, pages);
+        assertEquals(Arrays.asList(columns(1, 2), columns(3, 4)), pages.pages);
+
+        // an excluded bound that is not in the row
+        pages = new PageRecorder();
+        client.lookup(tupleMapper, longer, "c", "c4", Equality.GREATER_THAN, 2, pages);
+        assertEquals(Arrays.asList(columns(0, 1), columns(2, 3), columns(4)), pages.pages);
+
+        pages = new PageRecorder();
+        client.lookup(tupleMapper, longer, "c1", "c5", Equality.GREATER_THAN_EQUAL, true, 2, pages);
+        assertEquals(Arrays.asList(columns(5, 4), columns(3, 2), columns(1)), pages.pages);
+
+        pages = new PageRecorder();
+        client.lookup(tupleMapper, longer, "c1", "c5", Equality.GREATER_THAN, true, 2, pages);
+        assertEquals(Arrays.asList(columns(5, 4), columns(3, 2)), pages.pages);
+        client.stop();
+    }
+
+    @SuppressWarnings("serial")
+    @Test
+    public void testPagedLookupBolt() throws Exception {
+        writeWideRow("bolt", 7);
+        String configKey = "cassandra-config";
+        CassandraLookupBolt<String, String, String> bolt = new CassandraLookupBolt<String, String, String>(
+                configKey, new DefaultTupleMapper(KEYSPACE, "wide", "ROW"), new ColumnMapper<String, String, String>() {
+                    @Override
+                    public void declareOutputFields(OutputFieldsDeclarer declarer) {
+                        declarer.declare(new Fields("ROW", "COLUMNS"));
+                    }
+
+                    @Override
+                    public List<Values> mapToValues(String rowKey, Map<String, String> columns, Tuple input) {
+                        List<Values> values = new ArrayList<Values>();
+                        values.add(new Values(rowKey, new ArrayList<String>(columns.keySet())));
+                        return values;
+                    }
+                });
+        try {
+            bolt.setPageSize(-1);
+            fail();
+        } catch (IllegalArgumentException e) {
+        }
+        bolt.setPageSize(4);
+        TopologyBuilder builder = new TopologyBuilder();
+        builder.setBolt("TEST_PAGED_LOOKUP_BOLT", bolt);
+        Fields fields = new Fields("ROW");
+        TopologyContext context = new MockTopologyContext(builder.createTopology(), fields);
+
+        Config config = new Config();
+        config.put(configKey, clientConfig());
+        bolt.prepare(config, context);
+
+        RecordingOutputCollector collector = new RecordingOutputCollector();
+        Tuple input = new MockTuple(fields, new Values("bolt"));
+        BasicOutputCollector basicCollector = new BasicOutputCollector(new OutputCollector(collector));
+        basicCollector.setContext(input);
+        bolt.execute(input, basicCollector);
+        bolt.cleanup();
+
+        // one emit per page
+        List<List<Object>> expected = new ArrayList<List<Object>>();
+        expected.add(new Values("bolt", columns(0, 1, 2, 3)));
+        expected.add(new Values("bolt", columns(4, 5, 6)));
+        assertEquals(expected, collector.emitted);
+    }
+
+    /**
+     * Prepares <code>bolt</code> to ack on write through
+     * <code>collector</code>, with the test client config under
+     * "cassandra-config".
+     */
+    private static void prepareBatchingBolt(AbstractBatchingBolt<String, String, String> bolt, String name,
+            Config config, RecordingOutputCollector collector) {
+        bolt.setAckStrategy(AckStrategy.ACK_ON_WRITE);
+        TopologyBuilder builder = new TopologyBuilder();
+        builder.setBolt(name, bolt);
+        TopologyContext context = new MockTopologyContext(builder.createTopology(), new Fields("VALUE"));
+        config.put("cassandra-config", clientConfig());
+        bolt.prepare(config, context, new OutputCollector(collector));
+    }
+
+    private static Map<String, Object> clientConfig() {
+        Map<String, Object> clientConfig = new HashMap<String, Object>();
+        clientConfig.put(StormCassandraConstants.CASSANDRA_HOST, "localhost:9160");
+        clientConfig.put(StormCassandraConstants.CASSANDRA_KEYSPACE, Arrays.asList(new String [] {KEYSPACE}));
+        return clientConfig;
+    }
+
+    /**
+     * Writes columns <code>c0</code> to <code>c{width - 1}</code> to
+     * <code>rowKey</code> in the "wide" column family.
+     */
+    private static void writeWideRow(String rowKey, int width) throws Exception {
+        Keyspace ks = newContext("localhost:9160", KEYSPACE).getEntity();
+        ColumnFamily<String, String> wide = new ColumnFamily<String, String>("wide", StringSerializer.get(),
+                StringSerializer.get());
+        MutationBatch mutation = ks.prepareMutationBatch();
+        for (int i = 0; i < width; i++) {
+            mutation.withRow(wide, rowKey).putColumn("c" + i, "v" + i);
+        }
+        mutation.execute();
+    }
+
+    private static List<String> columns(int... indexes) {
+        List<String> columns = new ArrayList<String>();
+        for (int i : indexes) {
+            columns.add("c" + i);
+        }
+        return columns;
+    }
+
+    /**
+     * Batching bolt whose asynchronous writes are all rejected as invalid,
+     * <code>delayMillis</code> after they start.
+     */
+    @SuppressWarnings("serial")
+    private static class SlowRejectingBolt extends AbstractBatchingBolt<String, String, String> {
+        private final long delayMillis;
+
+        SlowRejectingBolt(long delayMillis) {
+            super("cassandra-config", null);
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        public void executeBatch(List<Tuple> inputs) {
+            executeAsync(inputs, new AsyncWrite() {
+                @Override
+                public ListenableFuture<?> start() {
+                    final SettableFuture<Void> result = SettableFuture.create();
+                    new Thread() {
+                        @Override
+                        public void run() {
+                            try {
+                                Thread.sleep(delayMillis);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                            result.setException(new IllegalArgumentException("rejected"));
+                        }
+                    }.start();
+                    return result;
+                }
+            });
+        }
+
+        @Override
+        protected boolean supportsRetry() {
+            return true;
+        }
+
+        @Override
+        public void declareOutputFields(OutputFieldsDeclarer declarer) {
+        }
+    }
+
+    /**
+     * Remembers the column names of every page, in order.
+     */
+    private static class PageRecorder implements ColumnPageHandler<String, String> {
+        final List<List<String>> pages = new ArrayList<List<String>>();
+
+        @Override
+        public void onPage(Map<String, String> columns) {
+            this.pages.add(new ArrayList<String>(columns.keySet()));
+        }
+    }
 }
@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hmsonline.storm.cassandra.bolt;
+
+import static com.hmsonline.storm.cassandra.bolt.AstyanaxUtil.createColumnFamily;
+import static com.hmsonline.storm.cassandra.bolt.AstyanaxUtil.newClusterContext;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import storm.trident.tuple.TridentTuple;
+import storm.trident.tuple.TridentTupleView;
+import backtype.storm.tuple.Fields;
+import backtype.storm.tuple.Values;
+
+import com.hmsonline.storm.cassandra.StormCassandraConstants;
+import com.hmsonline.storm.cassandra.client.AstyanaxClient;
+import com.hmsonline.storm.cassandra.trident.CassandraState;
+import com.netflix.astyanax.AstyanaxContext;
+import com.netflix.astyanax.Cluster;
+
+public class CassandraStateTest {
+    private static Logger LOG = LoggerFactory.getLogger(CassandraStateTest.class);
+    private static String KEYSPACE = CassandraStateTest.class.getSimpleName().toLowerCase();
+    private static Fields FIELDS = new Fields("key1", "foo", "bar");
+
+    @SuppressWarnings("rawtypes")
+    private static AstyanaxClient client;
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @BeforeClass
+    public static void setupCassandra() throws Exception {
+        SingletonEmbeddedCassandra.getInstance();
+        try {
+            AstyanaxContext<Cluster> clusterContext = newClusterContext("localhost:9160");
+            createColumnFamily(clusterContext, KEYSPACE, "trident", "UTF8Type", "UTF8Type", "UTF8Type");
+            createColumnFamily(clusterContext, KEYSPACE, "composite", "CompositeType(UTF8Type, UTF8Type)",
+                    "UTF8Type", "UTF8Type");
+        } catch (Exception e) {
+            LOG.warn("Couldn't setup cassandra.", e);
+            throw e;
+        }
+        client = new AstyanaxClient();
+        Map<String, Object> clientConfig = new HashMap<String, Object>();
+        clientConfig.put(StormCassandraConstants.CASSANDRA_HOST, "localhost:9160");
+        clientConfig.put(StormCassandraConstants.CASSANDRA_KEYSPACE, Arrays.asList(new String[] { KEYSPACE }));
+        // small chunks, so that the lookups below span several queries
+        clientConfig.put(StormCassandraConstants.CASSANDRA_LOOKUP_MAX_KEYS_PER_QUERY, 2);
+        client.start(clientConfig);
+
+        SimpleTridentTupleMapper mapper = new SimpleTridentTupleMapper(KEYSPACE, FIELDS);
+        client.writeTuple(newTridentTuple(FIELDS, new Values("row1", "foo1", "bar1")), mapper);
+        client.writeTuple(newTridentTuple(FIELDS, new Values("row2", "foo2", "bar2")), mapper);
+        client.writeTuple(newTridentTuple(FIELDS, new Values("row3", "foo3", "bar3")), mapper);
+
+        Fields compositeFields = new Fields("rowkey", "a", "b", "value");
+        CompositeColumnTridentTupleMapper compositeMapper = new CompositeColumnTridentTupleMapper(KEYSPACE);
+        client.writeTuple(newTridentTuple(compositeFields, new Values("crow1", "a", "a", "aa1")), compositeMapper);
+        client.writeTuple(newTridentTuple(compositeFields, new Values("crow1", "b", "b", "bb1")), compositeMapper);
+        client.writeTuple(newTridentTuple(compositeFields, new Values("crow2", "a", "b", "ab2")), compositeMapper);
+        client.writeTuple(newTridentTuple(compositeFields, new Values("crow2", "c", "c", "cc2")), compositeMapper);
+    }
+
+    @AfterClass
+    public static void stopClient() {
+        client.stop();
+    }
+
+    @SuppressWarnings("serial")
+    @Test
+    public void testBatchRetrieveRows() {
+        SimpleTridentTupleMapper mapper = new SimpleTridentTupleMapper(KEYSPACE, FIELDS) {
+            @Override
+            public List<String> mapToColumnsForLookup(TridentTuple tuple) {
+                return null;
+            }
+        };
+        List<Map<?, ?>> results = new CassandraState(client).batchRetrieve(
+                lookups("row2", "missing", "row1", "row2", "row3"), mapper);
+
+        assertEquals(5, results.size());
+        assertEquals("foo2", results.get(0).get("foo"));
+        assertTrue(results.get(1).isEmpty());
+        assertEquals("foo1", results.get(2).get("foo"));
+        assertEquals("bar1", results.get(2).get("bar"));
+        // duplicate keys each get their own copy of the row
+        assertEquals(results.get(0), results.get(3));
+        assertNotSame(results.get(0), results.get(3));
+        assertEquals("foo3", results.get(4).get("foo"));
+    }
+
+    @SuppressWarnings("serial")
+    @Test
+    public void testBatchRetrieveSlices() {
+        SimpleTridentTupleMapper mapper = new SimpleTridentTupleMapper(KEYSPACE, FIELDS) {
+            @Override
+            public List<String> mapToColumnsForLookup(TridentTuple tuple) {
+                // a new list per tuple, equal to the others
+                return Arrays.asList("bar");
+            }
+        };
+        List<Map<?, ?>> results = new CassandraState(client).batchRetrieve(lookups("row3", "missing", "row1"),
+                mapper);
+
+        assertEquals(3, results.size());
+        assertEquals(1, results.get(0).size());
+        assertEquals("bar3", results.get(0).get("bar"));
+        assertTrue(results.get(1).isEmpty());
+        assertEquals("bar1", results.get(2).get("bar"));
+    }
+
+    @SuppressWarnings("serial")
+    @Test
+    public void testBatchRetrieveCompositeRanges() {
+        CompositeColumnTridentTupleMapper mapper = new CompositeColumnTridentTupleMapper(KEYSPACE) {
+            @Override
+            public SimpleComposite mapToStartKey(TridentTuple tuple) {
+                return new SimpleComposite("a", "a");
+            }
+
+            @Override
+            public SimpleComposite mapToEndKey(TridentTuple tuple) {
+                return new SimpleComposite("b", "b");
+            }
+        };
+        Fields fields = new Fields("rowkey");
+        List<TridentTuple> tuples = Arrays.asList(newTridentTuple(fields, new Values("crow2")),
+                newTridentTuple(fields, new Values("crow1")), newTridentTuple(fields, new Values("missing")));
+        List<Map<?, ?>> results = new CassandraState(client).batchRetrieve(tuples, mapper);
+
+        assertEquals(3, results.size());
+        assertEquals(1, results.get(0).size());
+        assertEquals("ab2", results.get(0).get(new SimpleComposite("a", "b")));
+        assertEquals(2, results.get(1).size());
+        assertEquals("aa1", results.get(1).get(new SimpleComposite("a", "a")));
+        assertEquals("bb1", results.get(1).get(new SimpleComposite("b", "b")));
+        assertTrue(results.get(2).isEmpty());
+    }
+
+    private static List<TridentTuple> lookups(String... rowKeys) {
+        Fields fields = new Fields("key1");
+        TridentTuple[] tuples = new TridentTuple[rowKeys.length];
+        for (int i = 0; i < rowKeys.length; i++) {
+            tuples[i] = newTridentTuple(fields, new Values(rowKeys[i]));
+        }
+        return Arrays.asList(tuples);
+    }
+
+    private static TridentTuple newTridentTuple(Fields fields, List<Object> values) {
+        TridentTupleView.FreshOutputFactory fof = new TridentTupleView.FreshOutputFactory(fields);
+        return fof.create(values);
+    }
+}
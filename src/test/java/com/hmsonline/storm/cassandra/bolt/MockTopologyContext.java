@@ -21,6 +21,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 
 import backtype.storm.generated.StormTopology;
+import backtype.storm.metric.api.IMetric;
 import backtype.storm.task.TopologyContext;
 import backtype.storm.tuple.Fields;
 
@@ -37,4 +38,9 @@ public class MockTopologyContext extends TopologyContext {
     public Fields getComponentOutputFields(String componentId, String streamId) {
         return this.declaredFields;
     }
+
+    @Override
+    public <T extends IMetric> T registerMetric(String name, T metric, int timeBucketSizeInSecs) {
+        return metric;
+    }
 }
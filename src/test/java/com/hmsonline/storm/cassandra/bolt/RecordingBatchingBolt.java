@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hmsonline.storm.cassandra.bolt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import backtype.storm.topology.OutputFieldsDeclarer;
+import backtype.storm.tuple.Tuple;
+
+import com.hmsonline.storm.cassandra.bolt.mapper.TupleMapper;
+
+/**
+ * Batching bolt that records the batches it is handed, and the thread that
+ * flushed each of them, instead of writing them. Batches are treated as
+ * written. While held, the batch threads block in
+ * <code>executeBatch()</code>, so that tuples pile up in their queues.
+ */
+@SuppressWarnings("serial")
+public class RecordingBatchingBolt extends AbstractBatchingBolt<String, String, String> {
+    public final List<List<Tuple>> batches = Collections.synchronizedList(new ArrayList<List<Tuple>>());
+    public final List<String> threads = Collections.synchronizedList(new ArrayList<String>());
+    private transient volatile CountDownLatch held;
+    private transient volatile CountDownLatch started;
+
+    public RecordingBatchingBolt(String clientConfigKey, TupleMapper<String, String, String> tupleMapper) {
+        super(clientConfigKey, tupleMapper);
+    }
+
+    @Override
+    public void executeBatch(List<Tuple> inputs) {
+        synchronized (this.batches) {
+            this.batches.add(new ArrayList<Tuple>(inputs));
+            this.threads.add(Thread.currentThread().getName());
+        }
+        CountDownLatch held = this.held;
+        if (held != null) {
+            this.started.countDown();
+            try {
+                held.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        onBatchSucceeded(inputs);
+    }
+
+    /**
+     * Makes the next batches block until {@link #release()} is called.
+     */
+    public void hold() {
+        this.started = new CountDownLatch(1);
+        this.held = new CountDownLatch(1);
+    }
+
+    /**
+     * Waits for a batch thread to block on a held batch.
+     */
+    public void awaitHeld() throws InterruptedException {
+        this.started.await();
+    }
+
+    public void release() {
+        CountDownLatch held = this.held;
+        this.held = null;
+        held.countDown();
+    }
+
+    /**
+     * @return every tuple handed to <code>executeBatch()</code> so far
+     */
+    public List<Tuple> executed() {
+        List<Tuple> executed = new ArrayList<Tuple>();
+        synchronized (this.batches) {
+            for (List<Tuple> batch : this.batches) {
+                executed.addAll(batch);
+            }
+        }
+        return executed;
+    }
+
+    @Override
+    public void declareOutputFields(OutputFieldsDeclarer declarer) {
+    }
+}
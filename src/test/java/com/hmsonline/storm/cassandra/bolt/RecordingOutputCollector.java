@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hmsonline.storm.cassandra.bolt;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import backtype.storm.task.IOutputCollector;
+import backtype.storm.tuple.Tuple;
+
+/**
+ * Collector that remembers which tuples were emitted, acked and failed.
+ */
+public class RecordingOutputCollector implements IOutputCollector {
+    public final List<List<Object>> emitted = Collections.synchronizedList(new ArrayList<List<Object>>());
+    public final List<Tuple> acked = Collections.synchronizedList(new ArrayList<Tuple>());
+    public final List<Tuple> failed = Collections.synchronizedList(new ArrayList<Tuple>());
+
+    @Override
+    public List<Integer> emit(String streamId, Collection<Tuple> anchors, List<Object> tuple) {
+        this.emitted.add(tuple);
+        return new ArrayList<Integer>();
+    }
+
+    @Override
+    public void emitDirect(int taskId, String streamId, Collection<Tuple> anchors, List<Object> tuple) {
+    }
+
+    @Override
+    public void ack(Tuple input) {
+        this.acked.add(input);
+    }
+
+    @Override
+    public void fail(Tuple input) {
+        this.failed.add(input);
+    }
+
+    @Override
+    public void reportError(Throwable error) {
+    }
+
+    /**
+     * Waits up to <code>timeoutMillis</code> for <code>count</code> tuples to
+     * be acked or failed.
+     */
+    public void await(int count, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (this.acked.size() + this.failed.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hmsonline.storm.cassandra.bolt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import com.hmsonline.storm.cassandra.bolt.SpscRingBuffer.WaitStrategy;
+
+/**
+ * Compares the handoff throughput of {@link SpscRingBuffer} with
+ * <code>LinkedBlockingQueue</code>, using the same pattern as the batching
+ * bolt: one thread puts elements, another takes one and drains the rest.
+ * <p/>
+ * Not a unit test; run it by hand, e.g.
+ * <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.hmsonline.storm.cassandra.bolt.SpscRingBufferBenchmark</code>
+ */
+public class SpscRingBufferBenchmark {
+    private static final int CAPACITY = 16 * 1024;
+    private static final int MESSAGES = 10 * 1000 * 1000;
+    private static final int BATCH_SIZE = 500;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        for (int round = 0; round < ROUNDS; round++) {
+            System.out.println("Round " + (round + 1) + " of " + ROUNDS);
+            report("LinkedBlockingQueue", new LinkedBlockingQueue<Object>(CAPACITY));
+            for (WaitStrategy waitStrategy : WaitStrategy.values()) {
+                report("SpscRingBuffer " + waitStrategy, new SpscRingBuffer<Object>(CAPACITY, waitStrategy));
+            }
+        }
+    }
+
+    private static void report(String name, BlockingQueue<Object> queue) throws Exception {
+        System.gc();
+        long nanos = run(queue);
+        System.out.println(String.format("  %-28s %6d ms  %,12d msg/s", name, nanos / 1000000,
+                (long) (MESSAGES / (nanos / 1e9))));
+    }
+
+    private static long run(final BlockingQueue<Object> queue) throws Exception {
+        final Object message = new Object();
+        Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                List<Object> batch = new ArrayList<Object>(BATCH_SIZE);
+                int received = 0;
+                try {
+                    while (received < MESSAGES) {
+                        batch.add(queue.take());
+                        queue.drainTo(batch, BATCH_SIZE - 1);
+                        received += batch.size();
+                        batch.clear();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        long start = System.nanoTime();
+        consumer.start();
+        for (int i = 0; i < MESSAGES; i++) {
+            queue.put(message);
+        }
+        consumer.join();
+        return System.nanoTime() - start;
+    }
+}
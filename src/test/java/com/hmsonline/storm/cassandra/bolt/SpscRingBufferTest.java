@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hmsonline.storm.cassandra.bolt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.hmsonline.storm.cassandra.bolt.SpscRingBuffer.WaitStrategy;
+
+public class SpscRingBufferTest {
+
+    @Test
+    public void testBoundedFifo() {
+        SpscRingBuffer<Integer> buffer = new SpscRingBuffer<Integer>(3, WaitStrategy.PARK);
+        assertTrue(buffer.offer(1));
+        assertTrue(buffer.offer(2));
+        assertTrue(buffer.offer(3));
+        // capacity is honored even though 4 slots are allocated
+        assertFalse(buffer.offer(4));
+        assertEquals(3, buffer.size());
+        assertEquals(0, buffer.remainingCapacity());
+
+        assertEquals(Integer.valueOf(1), buffer.peek());
+        assertEquals(Integer.valueOf(1), buffer.poll());
+        assertTrue(buffer.offer(4));
+
+        List<Integer> drained = new ArrayList<Integer>();
+        assertEquals(2, buffer.drainTo(drained, 2));
+        assertEquals(Integer.valueOf(4), buffer.poll());
+        assertNull(buffer.poll());
+        assertEquals(2, drained.size());
+        assertEquals(Integer.valueOf(2), drained.get(0));
+        assertEquals(Integer.valueOf(3), drained.get(1));
+    }
+
+    @Test
+    public void testIterationAndRemoval() {
+        SpscRingBuffer<Integer> buffer = new SpscRingBuffer<Integer>(4, WaitStrategy.PARK);
+        assertEquals("[]", buffer.toString());
+        buffer.offer(1);
+        buffer.offer(2);
+        buffer.offer(3);
+        buffer.poll();
+        buffer.offer(4);
+        buffer.offer(5);
+        // wrapped around the end of the slots
+        assertEquals("[2, 3, 4, 5]", buffer.toString());
+        assertTrue(buffer.contains(4));
+        assertFalse(buffer.contains(1));
+
+        assertTrue(buffer.remove(Integer.valueOf(3)));
+        assertFalse(buffer.remove(Integer.valueOf(3)));
+        assertEquals("[2, 4, 5]", buffer.toString());
+
+        Iterator<Integer> it = buffer.iterator();
+        assertEquals(Integer.valueOf(2), it.next());
+        it.remove();
+        assertEquals("[4, 5]", buffer.toString());
+
+        // removed elements are skipped by the consumer
+        assertEquals(Integer.valueOf(4), buffer.peek());
+        assertEquals(Integer.valueOf(4), buffer.poll());
+        assertEquals(Integer.valueOf(5), buffer.poll());
+        assertNull(buffer.poll());
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    public void testDrainRemaining() {
+        SpscRingBuffer<Integer> buffer = new SpscRingBuffer<Integer>(4, WaitStrategy.PARK);
+        buffer.offer(1);
+        buffer.offer(2);
+        buffer.offer(3);
+        buffer.offer(4);
+        buffer.poll();
+        buffer.remove(3);
+        List<Integer> left = new ArrayList<Integer>();
+        assertEquals(2, buffer.drainRemaining(left));
+        assertEquals("[2, 4]", left.toString());
+        // the consumer skips what was taken from under it
+        assertNull(buffer.poll());
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void testTimedWaits() throws InterruptedException {
+        SpscRingBuffer<Integer> buffer = new SpscRingBuffer<Integer>(1, WaitStrategy.PARK);
+        assertNull(buffer.poll(10, TimeUnit.MILLISECONDS));
+        assertTrue(buffer.offer(1, 10, TimeUnit.MILLISECONDS));
+        assertFalse(buffer.offer(2, 10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testHandoffBusySpin() throws Exception {
+        assertHandoffInOrder(WaitStrategy.BUSY_SPIN);
+    }
+
+    @Test
+    public void testHandoffYield() throws Exception {
+        assertHandoffInOrder(WaitStrategy.YIELD);
+    }
+
+    @Test
+    public void testHandoffPark() throws Exception {
+        assertHandoffInOrder(WaitStrategy.PARK);
+    }
+
+    private void assertHandoffInOrder(WaitStrategy waitStrategy) throws Exception {
+        final int count = 200000;
+        final SpscRingBuffer<Integer> buffer = new SpscRingBuffer<Integer>(64, waitStrategy);
+        final AtomicReference<String> error = new AtomicReference<String>();
+        Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < count; i++) {
+                        Integer value = buffer.take();
+                        if (value.intValue() != i) {
+                            error.set("Expected " + i + " but took " + value);
+                            return;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    error.set("Interrupted");
+                }
+            }
+        };
+        consumer.start();
+        for (int i = 0; i < count; i++) {
+            buffer.put(i);
+        }
+        consumer.join(30000);
+        assertFalse(consumer.isAlive());
+        assertNull(error.get());
+        assertEquals(0, buffer.size());
+    }
+}
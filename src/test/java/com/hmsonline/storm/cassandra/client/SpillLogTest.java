@@ -0,0 +1,89 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hmsonline.storm.cassandra.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class SpillLogTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Test
+    public void testReplayInOrderAcrossCompactionAndReopen() throws Exception {
+        File file = File.createTempFile("spill", ".log");
+        file.delete();
+        file.deleteOnExit();
+        SpillLog log = SpillLog.open(file, 200);
+        int appended = 0;
+        int replayed = 0;
+        for (int round = 0; round < 50; round++) {
+            // fill the log, then replay a few entries so the next round has
+            // to compact
+            while (log.append(Arrays.asList(entry("m" + appended)))) {
+                appended++;
+            }
+            for (int i = 0; i < 3 && !log.isEmpty(); i++) {
+                replayed = replayNext(log, replayed);
+            }
+            if (round == 25) {
+                log.close();
+                log = SpillLog.open(file, 200);
+            }
+        }
+        while (!log.isEmpty()) {
+            replayed = replayNext(log, replayed);
+        }
+        assertEquals(appended, replayed);
+        assertEquals(0, log.size());
+        assertNull(log.peek());
+        log.close();
+    }
+
+    @Test
+    public void testAppendIsAllOrNothing() throws Exception {
+        File file = File.createTempFile("spill", ".log");
+        file.delete();
+        file.deleteOnExit();
+        SpillLog log = SpillLog.open(file, 40);
+        assertFalse(log.append(Arrays.asList(entry("0123456789"), entry("0123456789"))));
+        assertTrue(log.isEmpty());
+        assertTrue(log.append(Arrays.asList(entry("0123456789"))));
+        assertEquals("ks", log.peek().keyspace);
+        log.close();
+    }
+
+    private static SpillLog.Entry entry(String mutation) {
+        return new SpillLog.Entry("ks", ByteBuffer.wrap(mutation.getBytes(UTF8)));
+    }
+
+    private static int replayNext(SpillLog log, int replayed) {
+        SpillLog.Entry entry = log.peek();
+        assertEquals("m" + replayed, new String(entry.mutation.array(), UTF8));
+        log.remove(entry);
+        return replayed + 1;
+    }
+}